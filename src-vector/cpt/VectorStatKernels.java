@@ -0,0 +1,106 @@
+package cpt;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorStatKernels
+ * SIMD versions of the StatKernels using the (incubating) Vector API. Each loop handles as many values at once
+ * as the CPU's vector registers fit, then finishes the leftovers one at a time like ScalarStatKernels.
+ * Needs --add-modules jdk.incubator.vector to compile and run, which is why it lives in src-vector (StatKernels
+ * loads it by name when it can).
+ *
+ * @author R. Shi
+ */
+public class VectorStatKernels implements StatKernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    // Same number of lanes as DOUBLES, so a double vector converts straight into one of these
+    private static final VectorSpecies<Float> HALF_FLOATS =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void minMaxSum(double[] values, int length, double[] out) {
+        DoubleVector min = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+        DoubleVector sum = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (; i < DOUBLES.loopBound(length); i += DOUBLES.length()) {
+            DoubleVector chunk = DoubleVector.fromArray(DOUBLES, values, i);
+            min = min.min(chunk);
+            max = max.max(chunk);
+            sum = sum.add(chunk);
+        }
+
+        double minValue = min.reduceLanes(VectorOperators.MIN);
+        double maxValue = max.reduceLanes(VectorOperators.MAX);
+        double sumValue = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            minValue = Math.min(minValue, values[i]);
+            maxValue = Math.max(maxValue, values[i]);
+            sumValue += values[i];
+        }
+        out[0] = minValue;
+        out[1] = maxValue;
+        out[2] = sumValue;
+    }
+
+    @Override
+    public void project(double[] values, int length, double offset, double scale, float[] out) {
+        int i = 0;
+        for (; i < DOUBLES.loopBound(length); i += DOUBLES.length()) {
+            DoubleVector projected = DoubleVector.fromArray(DOUBLES, values, i).sub(offset).mul(scale);
+            ((FloatVector) projected.convertShape(VectorOperators.D2F, HALF_FLOATS, 0)).intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = (float) ((values[i] - offset) * scale);
+        }
+    }
+
+    @Override
+    public void mortonBins(float[] u, float[] v, int length, int cells, int[] out) {
+        if (FLOATS.length() != INTS.length()) {
+            new ScalarStatKernels().mortonBins(u, v, length, cells, out);
+            return;
+        }
+        int i = 0;
+        for (; i < FLOATS.loopBound(length); i += FLOATS.length()) {
+            IntVector cx = cell(FloatVector.fromArray(FLOATS, u, i), cells);
+            IntVector cy = cell(FloatVector.fromArray(FLOATS, v, i), cells);
+            spread(cx).or(spread(cy).lanewise(VectorOperators.LSHL, 1)).intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            int cx = Math.max(0, Math.min((int) (u[i] * cells), cells - 1));
+            int cy = Math.max(0, Math.min((int) (v[i] * cells), cells - 1));
+            out[i] = ScalarStatKernels.spread(cx) | (ScalarStatKernels.spread(cy) << 1);
+        }
+    }
+
+    /**
+     * Which cell each coordinate is in, clamped to the grid. F2I truncates like a (int) cast does.
+     */
+    private static IntVector cell(FloatVector coordinate, int cells) {
+        IntVector cell = (IntVector) coordinate.mul(cells).convert(VectorOperators.F2I, 0);
+        return cell.min(cells - 1).max(0);
+    }
+
+    /**
+     * Vector version of ScalarStatKernels.spread, on every lane at once.
+     */
+    private static IntVector spread(IntVector n) {
+        n = n.and(0xFFFF);
+        n = n.or(n.lanewise(VectorOperators.LSHL, 8)).and(0x00FF00FF);
+        n = n.or(n.lanewise(VectorOperators.LSHL, 4)).and(0x0F0F0F0F);
+        n = n.or(n.lanewise(VectorOperators.LSHL, 2)).and(0x33333333);
+        n = n.or(n.lanewise(VectorOperators.LSHL, 1)).and(0x55555555);
+        return n;
+    }
+}
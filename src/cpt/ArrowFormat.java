@@ -0,0 +1,434 @@
+package cpt;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * ArrowFormat
+ * The bits of the Apache Arrow IPC format that ArrowPlayerTable and ArrowWriter share.
+ *
+ * An Arrow stream is a list of messages: a schema, then dictionary batches, then record batches, then an
+ * end-of-stream marker. Each message is a small FlatBuffers table describing it (the metadata), followed by
+ * the raw column buffers (the body). An Arrow file is the same stream with "ARROW1" before it and a footer
+ * after it, so the file can be memory-mapped and read in place.
+ *
+ * Arrow's own Java library pulls in Netty and a dozen other jars, so this only has what the player data needs:
+ * reading and writing FlatBuffers tables, and the ids from Arrow's Schema.fbs, Message.fbs and File.fbs.
+ *
+ * @author R. Shi
+ */
+final class ArrowFormat {
+
+    // "ARROW1" and the padding after it at the start of a file
+    static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+    static final int MAGIC_PADDED = 8;
+
+    // Marks the start of every message (and, with a zero length after it, the end of the stream)
+    static final int CONTINUATION = 0xFFFFFFFF;
+
+    // MetadataVersion.V5
+    static final short VERSION = 4;
+
+    // MessageHeader union
+    static final byte HEADER_SCHEMA = 1;
+    static final byte HEADER_DICTIONARY_BATCH = 2;
+    static final byte HEADER_RECORD_BATCH = 3;
+
+    // Type union
+    static final byte TYPE_NULL = 1;
+    static final byte TYPE_FLOATING_POINT = 3;
+    static final byte TYPE_BINARY = 4;
+    static final byte TYPE_UTF8 = 5;
+    static final byte TYPE_DURATION = 18;
+    static final byte TYPE_LARGE_BINARY = 19;
+    static final byte TYPE_LARGE_UTF8 = 20;
+
+    // Precision of FloatingPoint
+    static final short PRECISION_DOUBLE = 2;
+
+    // Field ids of the tables used, in the order they're declared in the .fbs files
+    static final int MESSAGE_VERSION = 0;
+    static final int MESSAGE_HEADER_TYPE = 1;
+    static final int MESSAGE_HEADER = 2;
+    static final int MESSAGE_BODY_LENGTH = 3;
+
+    static final int SCHEMA_ENDIANNESS = 0;
+    static final int SCHEMA_FIELDS = 1;
+    static final short ENDIANNESS_LITTLE = 0;
+
+    static final int FIELD_NAME = 0;
+    static final int FIELD_NULLABLE = 1;
+    static final int FIELD_TYPE_TYPE = 2;
+    static final int FIELD_TYPE = 3;
+    static final int FIELD_DICTIONARY = 4;
+    static final int FIELD_CHILDREN = 5;
+
+    static final int INT_BIT_WIDTH = 0;
+    static final int INT_IS_SIGNED = 1;
+    static final int FLOATING_POINT_PRECISION = 0;
+
+    static final int DICTIONARY_ENCODING_ID = 0;
+    static final int DICTIONARY_ENCODING_INDEX_TYPE = 1;
+
+    static final int RECORD_BATCH_LENGTH = 0;
+    static final int RECORD_BATCH_NODES = 1;
+    static final int RECORD_BATCH_BUFFERS = 2;
+    static final int RECORD_BATCH_COMPRESSION = 3;
+
+    static final int DICTIONARY_BATCH_ID = 0;
+    static final int DICTIONARY_BATCH_DATA = 1;
+    static final int DICTIONARY_BATCH_IS_DELTA = 2;
+
+    static final int FOOTER_VERSION = 0;
+    static final int FOOTER_SCHEMA = 1;
+    static final int FOOTER_DICTIONARIES = 2;
+    static final int FOOTER_RECORD_BATCHES = 3;
+
+    // Everything in Arrow is little-endian. Unaligned so files from other writers can't trip the alignment checks.
+    static final ValueLayout.OfShort SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private ArrowFormat() {
+    }
+
+    /**
+     * Rounds a length up to the next multiple of 8, which every buffer and metadata block is padded to.
+     */
+    static long pad(long length) {
+        return (length + 7) & ~7L;
+    }
+
+    /**
+     * Table
+     * Reads one FlatBuffers table in place. The table starts with the (signed) distance back to its vtable,
+     * and the vtable says where in the table each field is, or 0 if the field was left out.
+     */
+    static final class Table {
+        private final MemorySegment buffer;
+        private final long position;
+        private final long vtable;
+        private final int vtableSize;
+
+        Table(MemorySegment buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+            this.vtable = position - buffer.get(INT, position);
+            this.vtableSize = buffer.get(SHORT, vtable) & 0xFFFF;
+        }
+
+        /**
+         * The table a buffer's root offset points to.
+         */
+        static Table root(MemorySegment buffer) {
+            return new Table(buffer, buffer.get(INT, 0));
+        }
+
+        private int fieldOffset(int field) {
+            int entry = 4 + 2 * field;
+            return entry < vtableSize ? buffer.get(SHORT, vtable + entry) & 0xFFFF : 0;
+        }
+
+        boolean has(int field) {
+            return fieldOffset(field) != 0;
+        }
+
+        byte getByte(int field, byte fallback) {
+            int offset = fieldOffset(field);
+            return offset == 0 ? fallback : buffer.get(ValueLayout.JAVA_BYTE, position + offset);
+        }
+
+        boolean getBoolean(int field) {
+            return getByte(field, (byte) 0) != 0;
+        }
+
+        short getShort(int field, short fallback) {
+            int offset = fieldOffset(field);
+            return offset == 0 ? fallback : buffer.get(SHORT, position + offset);
+        }
+
+        int getInt(int field, int fallback) {
+            int offset = fieldOffset(field);
+            return offset == 0 ? fallback : buffer.get(INT, position + offset);
+        }
+
+        long getLong(int field, long fallback) {
+            int offset = fieldOffset(field);
+            return offset == 0 ? fallback : buffer.get(LONG, position + offset);
+        }
+
+        /**
+         * Follows an offset field, i.e. where a table, vector or string starts. -1 if it was left out.
+         */
+        private long follow(int field) {
+            int offset = fieldOffset(field);
+            if (offset == 0) {
+                return -1;
+            }
+            long at = position + offset;
+            return at + (buffer.get(INT, at) & 0xFFFFFFFFL);
+        }
+
+        Table getTable(int field) {
+            long at = follow(field);
+            return at < 0 ? null : new Table(buffer, at);
+        }
+
+        String getString(int field) {
+            long at = follow(field);
+            if (at < 0) {
+                return null;
+            }
+            int length = buffer.get(INT, at);
+            return new String(buffer.asSlice(at + 4, length).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+        }
+
+        int getVectorLength(int field) {
+            long at = follow(field);
+            return at < 0 ? 0 : buffer.get(INT, at);
+        }
+
+        /**
+         * The i-th table of a vector of tables.
+         */
+        Table getVectorTable(int field, int i) {
+            long element = follow(field) + 4 + 4L * i;
+            return new Table(buffer, element + (buffer.get(INT, element) & 0xFFFFFFFFL));
+        }
+
+        /**
+         * A long out of a vector of structs that are made of longs (FieldNode and Buffer are two longs each).
+         */
+        long getVectorLong(int field, int i) {
+            return buffer.get(LONG, follow(field) + 4 + 8L * i);
+        }
+    }
+
+    /**
+     * Builder
+     * Writes FlatBuffers front to back: a table is written first with placeholders for its offset fields, and
+     * whatever those fields point to is written after it and linked in. (The official builder goes back to
+     * front, but offsets only have to point forward, so either way gives a valid buffer.) Everything is kept
+     * aligned to its own size so strict verifiers like the one in Arrow C++ accept it.
+     */
+    static final class Builder {
+        private byte[] bytes = new byte[512];
+        private int size = 4;
+
+        /**
+         * @return the finished buffer, padded to a multiple of 8 bytes
+         */
+        byte[] finish() {
+            align(8, 0);
+            return Arrays.copyOf(bytes, size);
+        }
+
+        /**
+         * Points the buffer's root at a table.
+         */
+        void setRoot(int table) {
+            setInt(0, table);
+        }
+
+        /**
+         * Fills in an offset placeholder so it points at target.
+         */
+        void link(int placeholder, int target) {
+            setInt(placeholder, target - placeholder);
+        }
+
+        TableBuilder startTable(int fields) {
+            return new TableBuilder(fields);
+        }
+
+        /**
+         * Writes a string (length, UTF-8 bytes and a terminating zero).
+         */
+        int addString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            align(4, 0);
+            int start = putInt(utf8.length);
+            for (byte b : utf8) {
+                putByte(b);
+            }
+            putByte(0);
+            return start;
+        }
+
+        /**
+         * Writes a vector of offsets, all placeholders for now. Element i is at vectorElement(vector, i).
+         */
+        int addOffsetVector(int count) {
+            align(4, 0);
+            int start = putInt(count);
+            for (int i = 0; i < count; i++) {
+                putInt(0);
+            }
+            return start;
+        }
+
+        static int vectorElement(int vector, int i) {
+            return vector + 4 + 4 * i;
+        }
+
+        /**
+         * Writes a vector of structs that are made of longs, e.g. {length, nullCount} FieldNodes.
+         */
+        int addLongStructVector(long[] longs, int longsPerStruct) {
+            align(8, 4);
+            int start = putInt(longs.length / longsPerStruct);
+            for (long value : longs) {
+                putLong(value);
+            }
+            return start;
+        }
+
+        private void align(int alignment, int remainder) {
+            while (size % alignment != remainder) {
+                putByte(0);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        private int putByte(int value) {
+            ensure(1);
+            bytes[size] = (byte) value;
+            return size++;
+        }
+
+        private int putShort(int value) {
+            int start = size;
+            putByte(value);
+            putByte(value >> 8);
+            return start;
+        }
+
+        private int putInt(int value) {
+            int start = size;
+            putShort(value);
+            putShort(value >> 16);
+            return start;
+        }
+
+        private int putLong(long value) {
+            int start = size;
+            putInt((int) value);
+            putInt((int) (value >> 32));
+            return start;
+        }
+
+        private void setInt(int at, int value) {
+            for (int i = 0; i < 4; i++) {
+                bytes[at + i] = (byte) (value >> (8 * i));
+            }
+        }
+
+        /**
+         * TableBuilder
+         * Collects a table's fields, then writes its vtable and the table itself. Offset fields are written
+         * as placeholders, use fieldPosition to link them once what they point to has been written.
+         */
+        final class TableBuilder {
+            private final int[] sizes;
+            private final long[] values;
+            private final int[] offsets;
+            private int table;
+
+            private TableBuilder(int fields) {
+                sizes = new int[fields];
+                values = new long[fields];
+                offsets = new int[fields];
+            }
+
+            TableBuilder addByte(int field, int value) {
+                return add(field, 1, value);
+            }
+
+            TableBuilder addBoolean(int field, boolean value) {
+                return add(field, 1, value ? 1 : 0);
+            }
+
+            TableBuilder addShort(int field, int value) {
+                return add(field, 2, value);
+            }
+
+            TableBuilder addInt(int field, int value) {
+                return add(field, 4, value);
+            }
+
+            TableBuilder addLong(int field, long value) {
+                return add(field, 8, value);
+            }
+
+            TableBuilder addOffset(int field) {
+                return add(field, 4, 0);
+            }
+
+            private TableBuilder add(int field, int size, long value) {
+                sizes[field] = size;
+                values[field] = value;
+                return this;
+            }
+
+            /**
+             * Writes the vtable and the table. The biggest fields go first so each one lands on a multiple of
+             * its own size (the table starts 4 bytes before a multiple of 8, right after its vtable offset).
+             *
+             * @return where the table starts
+             */
+            int end() {
+                int tableSize = 4;
+                for (int fieldSize = 8; fieldSize >= 1; fieldSize /= 2) {
+                    for (int field = 0; field < sizes.length; field++) {
+                        if (sizes[field] == fieldSize) {
+                            offsets[field] = tableSize;
+                            tableSize += fieldSize;
+                        }
+                    }
+                }
+
+                align(2, 0);
+                int vtable = putShort(4 + 2 * sizes.length);
+                putShort(tableSize);
+                for (int offset : offsets) {
+                    putShort(offset);
+                }
+
+                align(8, 4);
+                table = putInt(size - vtable);
+                for (int fieldSize = 8; fieldSize >= 1; fieldSize /= 2) {
+                    for (int field = 0; field < sizes.length; field++) {
+                        if (sizes[field] == fieldSize) {
+                            if (fieldSize == 8) {
+                                putLong(values[field]);
+                            } else if (fieldSize == 4) {
+                                putInt((int) values[field]);
+                            } else if (fieldSize == 2) {
+                                putShort((int) values[field]);
+                            } else {
+                                putByte((int) values[field]);
+                            }
+                        }
+                    }
+                }
+                return table;
+            }
+
+            /**
+             * @return where a field of the written table is, for linking offset fields
+             */
+            int fieldPosition(int field) {
+                return table + offsets[field];
+            }
+        }
+    }
+}
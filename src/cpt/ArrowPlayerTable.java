@@ -0,0 +1,475 @@
+package cpt;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ArrowPlayerTable
+ * A PlayerTable over a memory-mapped Apache Arrow IPC file (.arrow/.feather) or stream (.arrows), e.g. one
+ * written by ArrowWriter or exported from pandas/polars. Like OffHeapPlayerTable, opening it doesn't copy
+ * anything: each stat is read straight out of the file's float64 column, and the rank column's dictionary
+ * indices are turned into PlayerTable.RANKS codes through a small lookup table made from the dictionary.
+ *
+ * The file needs these columns (found by name, any order, other columns are skipped): username (string),
+ * tr, glicko, rd, apm, pps, vs (float64) and rank (dictionary-encoded or plain string). Null stats read as NaN,
+ * null ranks as unranked. Each record batch keeps the rank dictionary that was current when it was read, so a
+ * replacement dictionary part way through a stream only changes the batches after it.
+ *
+ * Compressed files aren't supported, since decompressing would mean copying (pandas/pyarrow write LZ4 feather
+ * files by default, save with compression="uncompressed" instead). Neither are big-endian files.
+ *
+ * @author R. Shi
+ */
+public class ArrowPlayerTable implements PlayerTable {
+
+    // Column names of the stats, in stat column order (TR, GLICKO, ...)
+    private static final String[] STAT_NAMES = {"tr", "glicko", "rd", "apm", "pps", "vs"};
+
+    private static final int UNRANKED = RANKS.length - 1;
+
+    private static final String COMPRESSED = "Compressed Arrow files aren't supported, "
+            + "save it with compression=\"uncompressed\"";
+
+    private final int rows;
+    private final Batch[] batches;
+    private final int[] batchStarts;
+
+    private ArrowPlayerTable(List<Batch> batches) {
+        this.batches = batches.toArray(new Batch[0]);
+        this.batchStarts = new int[this.batches.length];
+        int total = 0;
+        for (int i = 0; i < this.batches.length; i++) {
+            this.batches[i].start = total;
+            batchStarts[i] = total;
+            total += this.batches[i].length;
+        }
+        this.rows = total;
+    }
+
+    /**
+     * open
+     * Memory-maps an Arrow IPC file or stream. Like OffHeapPlayerTable.open, the mapping is released by the
+     * garbage collector once the table isn't used anymore.
+     *
+     * @param path the Arrow file
+     * @return a table over the file
+     * @throws IOException if the file can't be read, isn't Arrow, or doesn't have the player columns
+     */
+    public static ArrowPlayerTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+            return read(file);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Arrow file is truncated or corrupt", e);
+        }
+    }
+
+    /**
+     * Goes through the messages one after the other. The file format is the stream format with a magic
+     * number in front and a footer at the end, so both are read the same way (the footer only repeats
+     * where the messages are).
+     */
+    private static ArrowPlayerTable read(MemorySegment file) throws IOException {
+        long position = 0;
+        if (startsWithMagic(file)) {
+            position = ArrowFormat.MAGIC_PADDED;
+        }
+
+        Schema schema = null;
+        byte[] dictionaryCodes = new byte[0];
+        List<Batch> batches = new ArrayList<>();
+        while (position + 4 <= file.byteSize()) {
+
+            // Streams from before Arrow 0.15 don't have the continuation marker
+            int metadataLength = file.get(ArrowFormat.INT, position);
+            position += 4;
+            if (metadataLength == ArrowFormat.CONTINUATION) {
+                metadataLength = file.get(ArrowFormat.INT, position);
+                position += 4;
+            }
+            if (metadataLength == 0) {
+                break;
+            }
+
+            ArrowFormat.Table message = ArrowFormat.Table.root(file.asSlice(position, metadataLength));
+            long bodyLength = message.getLong(ArrowFormat.MESSAGE_BODY_LENGTH, 0);
+            MemorySegment body = file.asSlice(position + metadataLength, bodyLength);
+            position += metadataLength + bodyLength;
+
+            byte headerType = message.getByte(ArrowFormat.MESSAGE_HEADER_TYPE, (byte) 0);
+            ArrowFormat.Table header = message.getTable(ArrowFormat.MESSAGE_HEADER);
+            if (headerType == ArrowFormat.HEADER_SCHEMA) {
+                schema = new Schema(header);
+            } else if (schema == null) {
+                throw new IOException("Arrow file has data before its schema");
+            } else if (headerType == ArrowFormat.HEADER_DICTIONARY_BATCH) {
+                dictionaryCodes = readDictionary(schema, header, body, dictionaryCodes);
+            } else if (headerType == ArrowFormat.HEADER_RECORD_BATCH) {
+                batches.add(new Batch(schema, header, body, dictionaryCodes));
+            }
+        }
+        if (schema == null) {
+            throw new IOException("Not an Arrow file");
+        }
+        return new ArrowPlayerTable(batches);
+    }
+
+    private static boolean startsWithMagic(MemorySegment file) {
+        if (file.byteSize() < ArrowFormat.MAGIC_PADDED) {
+            return false;
+        }
+        for (int i = 0; i < ArrowFormat.MAGIC.length; i++) {
+            if (file.get(ValueLayout.JAVA_BYTE, i) != ArrowFormat.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Turns the rank dictionary into RANKS codes. Other dictionaries are skipped. A delta batch adds on to the
+     * end of the dictionary instead of replacing it. Always makes a new array, since the batches read so far
+     * still use the old one.
+     */
+    private static byte[] readDictionary(Schema schema, ArrowFormat.Table header, MemorySegment body, byte[] codes)
+            throws IOException {
+        long id = header.getLong(ArrowFormat.DICTIONARY_BATCH_ID, 0);
+        if (schema.rankDictionaryId != id) {
+            return codes;
+        }
+        ArrowFormat.Table data = header.getTable(ArrowFormat.DICTIONARY_BATCH_DATA);
+        if (data.has(ArrowFormat.RECORD_BATCH_COMPRESSION)) {
+            throw new IOException(COMPRESSED);
+        }
+        int length = (int) data.getLong(ArrowFormat.RECORD_BATCH_LENGTH, 0);
+        StringColumn values = new StringColumn(data, body, 0, 0, schema.rankDictionaryLarge);
+
+        int start = header.getBoolean(ArrowFormat.DICTIONARY_BATCH_IS_DELTA) ? codes.length : 0;
+        byte[] result = Arrays.copyOf(codes, start + length);
+        for (int i = 0; i < length; i++) {
+            String rank = values.get(i);
+            result[start + i] = (byte) (rank == null ? UNRANKED : PlayerTable.getRankCode(rank));
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public double getStat(int row, int column) {
+        Batch batch = batchOf(row);
+        int index = row - batch.start;
+        if (batch.statValidity[column] != null && !isValid(batch.statValidity[column], index)) {
+            return Double.NaN;
+        }
+        return batch.stats[column].getAtIndex(ArrowFormat.DOUBLE, index);
+    }
+
+    @Override
+    public void fillStat(int column, double[] out) {
+        for (Batch batch : batches) {
+            MemorySegment.copy(batch.stats[column], ArrowFormat.DOUBLE, 0, out, batch.start, batch.length);
+            MemorySegment validity = batch.statValidity[column];
+            if (validity == null) {
+                continue;
+            }
+            for (int index = 0; index < batch.length; index++) {
+                if (!isValid(validity, index)) {
+                    out[batch.start + index] = Double.NaN;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getRank(int row) {
+        return RANKS[getRankCode(row)];
+    }
+
+    @Override
+    public int getRankBucket(int row) {
+        return OffHeapPlayerTable.BUCKETS[getRankCode(row)];
+    }
+
+    @Override
+    public String getUsername(int row) {
+        Batch batch = batchOf(row);
+        String username = batch.usernames.get(row - batch.start);
+        return username == null ? "" : username;
+    }
+
+    private int getRankCode(int row) {
+        Batch batch = batchOf(row);
+        int index = row - batch.start;
+        if (batch.rankStrings != null) {
+            String rank = batch.rankStrings.get(index);
+            return rank == null ? UNRANKED : PlayerTable.getRankCode(rank);
+        }
+        if (batch.rankValidity != null && !isValid(batch.rankValidity, index)) {
+            return UNRANKED;
+        }
+        long key;
+        if (batch.rankIndexBytes == 1) {
+            key = batch.rankIndices.get(ValueLayout.JAVA_BYTE, index);
+        } else if (batch.rankIndexBytes == 2) {
+            key = batch.rankIndices.getAtIndex(ArrowFormat.SHORT, index);
+        } else if (batch.rankIndexBytes == 4) {
+            key = batch.rankIndices.getAtIndex(ArrowFormat.INT, index);
+        } else {
+            key = batch.rankIndices.getAtIndex(ArrowFormat.LONG, index);
+        }
+        if (!batch.rankIndexSigned && batch.rankIndexBytes < 8) {
+            key &= (1L << (8 * batch.rankIndexBytes)) - 1;
+        }
+        return key >= 0 && key < batch.rankCodes.length ? batch.rankCodes[(int) key] : UNRANKED;
+    }
+
+    /**
+     * The batch a row is in. Most files have one batch, so that's checked first.
+     */
+    private Batch batchOf(int row) {
+        if (batches.length == 1) {
+            return batches[0];
+        }
+        int i = Arrays.binarySearch(batchStarts, row);
+        if (i < 0) {
+            i = -i - 2;
+        }
+
+        // Skip empty batches that start at the same row
+        while (i + 1 < batches.length && batchStarts[i + 1] <= row) {
+            i++;
+        }
+        return batches[i];
+    }
+
+    private static boolean isValid(MemorySegment validity, int index) {
+        return (validity.get(ValueLayout.JAVA_BYTE, index >> 3) & (1 << (index & 7))) != 0;
+    }
+
+    /**
+     * Schema
+     * Where the player columns are among the file's columns, and which buffers each of them uses.
+     */
+    private static final class Schema {
+        private final int[] statFields = new int[STAT_COUNT];
+        private int usernameField = -1;
+        private boolean usernameLarge;
+        private int rankField = -1;
+        private long rankDictionaryId = -1;
+        private boolean rankDictionaryLarge;
+        private boolean rankLarge;
+        private int rankIndexBytes;
+        private boolean rankIndexSigned;
+
+        // Index of each column's first buffer in a record batch
+        private final int[] firstBuffer;
+
+        Schema(ArrowFormat.Table schema) throws IOException {
+            if (schema.getShort(ArrowFormat.SCHEMA_ENDIANNESS, ArrowFormat.ENDIANNESS_LITTLE)
+                    != ArrowFormat.ENDIANNESS_LITTLE) {
+                throw new IOException("Big-endian Arrow files aren't supported");
+            }
+            Arrays.fill(statFields, -1);
+            int fields = schema.getVectorLength(ArrowFormat.SCHEMA_FIELDS);
+            firstBuffer = new int[fields];
+            int buffers = 0;
+            for (int i = 0; i < fields; i++) {
+                ArrowFormat.Table field = schema.getVectorTable(ArrowFormat.SCHEMA_FIELDS, i);
+                String name = field.getString(ArrowFormat.FIELD_NAME);
+                name = name == null ? "" : name.toLowerCase();
+                byte type = field.getByte(ArrowFormat.FIELD_TYPE_TYPE, (byte) 0);
+                ArrowFormat.Table dictionary = field.getTable(ArrowFormat.FIELD_DICTIONARY);
+                firstBuffer[i] = buffers;
+                buffers += bufferCount(field, type, dictionary != null);
+
+                int stat = Arrays.asList(STAT_NAMES).indexOf(name);
+                if (stat >= 0) {
+                    ArrowFormat.Table floating = field.getTable(ArrowFormat.FIELD_TYPE);
+                    if (type != ArrowFormat.TYPE_FLOATING_POINT || dictionary != null || floating == null
+                            || floating.getShort(ArrowFormat.FLOATING_POINT_PRECISION, (short) 0)
+                                    != ArrowFormat.PRECISION_DOUBLE) {
+                        throw new IOException("Arrow column " + name + " has to be float64");
+                    }
+                    statFields[stat] = i;
+                } else if (name.equals("username")) {
+                    if (!isString(type) || dictionary != null) {
+                        throw new IOException("Arrow column username has to be a string");
+                    }
+                    usernameField = i;
+                    usernameLarge = type == ArrowFormat.TYPE_LARGE_UTF8;
+                } else if (name.equals("rank")) {
+                    if (!isString(type)) {
+                        throw new IOException("Arrow column rank has to be a string");
+                    }
+                    rankField = i;
+                    if (dictionary != null) {
+                        ArrowFormat.Table indexType = dictionary.getTable(ArrowFormat.DICTIONARY_ENCODING_INDEX_TYPE);
+                        rankDictionaryId = dictionary.getLong(ArrowFormat.DICTIONARY_ENCODING_ID, 0);
+                        rankDictionaryLarge = type == ArrowFormat.TYPE_LARGE_UTF8;
+                        rankIndexBytes = indexType == null ? 4 : indexType.getInt(ArrowFormat.INT_BIT_WIDTH, 32) / 8;
+                        rankIndexSigned = indexType == null || indexType.getBoolean(ArrowFormat.INT_IS_SIGNED);
+                    } else {
+                        rankLarge = type == ArrowFormat.TYPE_LARGE_UTF8;
+                    }
+                }
+            }
+
+            for (int stat = 0; stat < STAT_COUNT; stat++) {
+                if (statFields[stat] < 0) {
+                    throw new IOException("Arrow file has no " + STAT_NAMES[stat] + " column");
+                }
+            }
+            if (usernameField < 0 || rankField < 0) {
+                throw new IOException("Arrow file needs username and rank columns");
+            }
+        }
+
+        private static boolean isString(byte type) {
+            return type == ArrowFormat.TYPE_UTF8 || type == ArrowFormat.TYPE_LARGE_UTF8;
+        }
+
+        /**
+         * How many buffers a column takes in each record batch. Nested columns (lists, structs and so on)
+         * would need their children walked too, which the player data never has.
+         */
+        private static int bufferCount(ArrowFormat.Table field, byte type, boolean dictionary) throws IOException {
+            if (field.getVectorLength(ArrowFormat.FIELD_CHILDREN) > 0) {
+                throw new IOException("Nested Arrow columns aren't supported");
+            }
+            if (dictionary) {
+                return 2;
+            }
+            switch (type) {
+                case ArrowFormat.TYPE_NULL:
+                    return 0;
+                case ArrowFormat.TYPE_BINARY:
+                case ArrowFormat.TYPE_UTF8:
+                case ArrowFormat.TYPE_LARGE_BINARY:
+                case ArrowFormat.TYPE_LARGE_UTF8:
+                    return 3;
+                default:
+                    // The other flat types up to Duration (ints, floats, bools, dates, times, decimals, ...) are
+                    // validity + values. The nested ones in that range were already caught by the children check.
+                    if (type > 0 && type <= ArrowFormat.TYPE_DURATION) {
+                        return 2;
+                    }
+                    throw new IOException("Arrow column type " + type + " isn't supported");
+            }
+        }
+    }
+
+    /**
+     * Batch
+     * Views of one record batch's buffers for the player columns. Nothing is copied, these are slices of the
+     * mapped file.
+     */
+    private static final class Batch {
+        private int start;
+        private final int length;
+        private final MemorySegment[] stats = new MemorySegment[STAT_COUNT];
+        private final MemorySegment[] statValidity = new MemorySegment[STAT_COUNT];
+        private final StringColumn usernames;
+
+        // Dictionary-encoded ranks, or rankStrings if the rank column is plain strings
+        private final MemorySegment rankValidity;
+        private final MemorySegment rankIndices;
+        private final int rankIndexBytes;
+        private final boolean rankIndexSigned;
+        private final StringColumn rankStrings;
+
+        // The rank dictionary (index to RANKS code) as it was when this batch came up in the file
+        private final byte[] rankCodes;
+
+        Batch(Schema schema, ArrowFormat.Table header, MemorySegment body, byte[] rankCodes) throws IOException {
+            if (header.has(ArrowFormat.RECORD_BATCH_COMPRESSION)) {
+                throw new IOException(COMPRESSED);
+            }
+            length = (int) header.getLong(ArrowFormat.RECORD_BATCH_LENGTH, 0);
+            this.rankCodes = rankCodes;
+            for (int stat = 0; stat < STAT_COUNT; stat++) {
+                int field = schema.statFields[stat];
+                statValidity[stat] = validity(header, body, field, schema.firstBuffer[field]);
+                stats[stat] = buffer(header, body, schema.firstBuffer[field] + 1);
+            }
+            usernames = new StringColumn(header, body, schema.usernameField, schema.firstBuffer[schema.usernameField],
+                    schema.usernameLarge);
+
+            int rankBuffer = schema.firstBuffer[schema.rankField];
+            rankIndexBytes = schema.rankIndexBytes;
+            rankIndexSigned = schema.rankIndexSigned;
+            if (schema.rankDictionaryId >= 0) {
+                rankValidity = validity(header, body, schema.rankField, rankBuffer);
+                rankIndices = buffer(header, body, rankBuffer + 1);
+                rankStrings = null;
+            } else {
+                rankValidity = null;
+                rankIndices = null;
+                rankStrings = new StringColumn(header, body, schema.rankField, rankBuffer, schema.rankLarge);
+            }
+        }
+    }
+
+    /**
+     * StringColumn
+     * A Utf8 (int offsets) or LargeUtf8 (long offsets) column of one batch.
+     */
+    private static final class StringColumn {
+        private final MemorySegment validity;
+        private final MemorySegment offsets;
+        private final MemorySegment data;
+        private final boolean large;
+
+        StringColumn(ArrowFormat.Table header, MemorySegment body, int field, int firstBuffer, boolean large) {
+            this.validity = validity(header, body, field, firstBuffer);
+            this.offsets = buffer(header, body, firstBuffer + 1);
+            this.data = buffer(header, body, firstBuffer + 2);
+            this.large = large;
+        }
+
+        /**
+         * @return the string at an index, or null if it's null
+         */
+        String get(int index) {
+            if (validity != null && !isValid(validity, index)) {
+                return null;
+            }
+            long start = large ? offsets.getAtIndex(ArrowFormat.LONG, index)
+                    : offsets.getAtIndex(ArrowFormat.INT, index);
+            long end = large ? offsets.getAtIndex(ArrowFormat.LONG, index + 1)
+                    : offsets.getAtIndex(ArrowFormat.INT, index + 1);
+            byte[] bytes = data.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Slice of the body for a buffer, from the batch's {offset, length} list.
+     */
+    private static MemorySegment buffer(ArrowFormat.Table header, MemorySegment body, int buffer) {
+        long offset = header.getVectorLong(ArrowFormat.RECORD_BATCH_BUFFERS, buffer * 2);
+        long length = header.getVectorLong(ArrowFormat.RECORD_BATCH_BUFFERS, buffer * 2 + 1);
+        return body.asSlice(offset, length);
+    }
+
+    /**
+     * A column's validity bitmap, or null if the column has no nulls in this batch (then the bitmap can be
+     * left empty by the writer).
+     */
+    private static MemorySegment validity(ArrowFormat.Table header, MemorySegment body, int field, int buffer) {
+        long nullCount = header.getVectorLong(ArrowFormat.RECORD_BATCH_NODES, field * 2 + 1);
+        return nullCount == 0 ? null : buffer(header, body, buffer);
+    }
+}
@@ -0,0 +1,424 @@
+package cpt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * ArrowWriter
+ * Writes players out as Apache Arrow IPC, either as a file (.arrow, which pandas, polars, DuckDB and R can all
+ * open straight away) or as a stream (for piping into another program). The columns are the same as the csv:
+ * username, tr, rank, glicko, rd, apm, pps, vs. The stats are float64 columns and rank is dictionary-encoded
+ * with PlayerTable.RANKS as the dictionary, so it's one byte per player.
+ *
+ * Any subset of rows can be written (e.g. only the ranks the chart is showing). Each column is written
+ * straight from the PlayerTable through one reused buffer, so no csv text or Player objects are made.
+ *
+ * @author R. Shi
+ */
+public class ArrowWriter {
+
+    // Columns in csv order, and which stat column each one is (-1 for username and rank)
+    static final String[] FIELDS = {"username", "tr", "rank", "glicko", "rd", "apm", "pps", "vs"};
+    private static final int[] STAT_OF_FIELD = {
+        -1, PlayerTable.TR, -1, PlayerTable.GLICKO, PlayerTable.RD, PlayerTable.APM, PlayerTable.PPS, PlayerTable.VS
+    };
+    private static final int RANK_FIELD = 2;
+    private static final long RANK_DICTIONARY_ID = 0;
+
+    private ArrowWriter() {
+    }
+
+    /**
+     * writeFile
+     * Writes players to an Arrow IPC file, replacing it if it's already there.
+     *
+     * @param players the table of players
+     * @param rows the rows to write, in the order they should be written
+     * @param path the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void writeFile(PlayerTable players, int[] rows, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(players, rows, channel, true);
+        }
+    }
+
+    /**
+     * writeStream
+     * Writes players in the Arrow IPC stream format. The channel is left open.
+     *
+     * @param players the table of players
+     * @param rows the rows to write, in the order they should be written
+     * @param channel where to write the stream (e.g. Channels.newChannel(System.out))
+     * @throws IOException if the channel can't be written to
+     */
+    public static void writeStream(PlayerTable players, int[] rows, WritableByteChannel channel) throws IOException {
+        write(players, rows, channel, false);
+    }
+
+    /**
+     * Writes the schema, the rank dictionary and one record batch with every row, plus the magic and footer
+     * for the file format.
+     */
+    private static void write(PlayerTable players, int[] rows, WritableByteChannel channel, boolean file)
+            throws IOException {
+        Output out = new Output(channel);
+        if (file) {
+            out.put(ArrowFormat.MAGIC);
+            out.pad();
+        }
+        writeMessage(out, schemaMessage());
+
+        // The dictionary: every rank tier as a Utf8 column
+        long dictionaryOffset = out.position();
+        byte[][] rankNames = new byte[PlayerTable.RANKS.length][];
+        long rankNameBytes = 0;
+        for (int i = 0; i < rankNames.length; i++) {
+            rankNames[i] = PlayerTable.RANKS[i].getBytes(StandardCharsets.UTF_8);
+            rankNameBytes += rankNames[i].length;
+        }
+        Layout dictionaryLayout = new Layout(1);
+        dictionaryLayout.node(rankNames.length);
+        dictionaryLayout.buffer(0);
+        dictionaryLayout.buffer((rankNames.length + 1) * 4L);
+        dictionaryLayout.buffer(rankNameBytes);
+        int dictionaryMetadata = writeMessage(out, batchMessage(ArrowFormat.HEADER_DICTIONARY_BATCH,
+                rankNames.length, dictionaryLayout));
+        int end = 0;
+        out.putInt(end);
+        for (byte[] name : rankNames) {
+            end += name.length;
+            out.putInt(end);
+        }
+        out.pad();
+        for (byte[] name : rankNames) {
+            out.put(name);
+        }
+        out.pad();
+
+        // First pass over the usernames, just to size them
+        int count = rows.length;
+        int[] nameLengths = new int[count];
+        long nameBytes = 0;
+        for (int i = 0; i < count; i++) {
+            nameLengths[i] = utf8Length(players.getUsername(rows[i]));
+            nameBytes += nameLengths[i];
+        }
+        if (nameBytes > Integer.MAX_VALUE) {
+            throw new IOException("Usernames don't fit in an Arrow Utf8 column");
+        }
+
+        // The record batch: a validity buffer (left empty, nothing is null) and the data of each column
+        Layout layout = new Layout(FIELDS.length);
+        for (int field = 0; field < FIELDS.length; field++) {
+            layout.node(count);
+            layout.buffer(0);
+            if (field == 0) {
+                layout.buffer((count + 1) * 4L);
+                layout.buffer(nameBytes);
+            } else if (field == RANK_FIELD) {
+                layout.buffer(count);
+            } else {
+                layout.buffer(count * 8L);
+            }
+        }
+        long batchOffset = out.position();
+        int batchMetadata = writeMessage(out, batchMessage(ArrowFormat.HEADER_RECORD_BATCH, count, layout));
+
+        for (int field = 0; field < FIELDS.length; field++) {
+            if (field == 0) {
+                int offset = 0;
+                out.putInt(offset);
+                for (int length : nameLengths) {
+                    offset += length;
+                    out.putInt(offset);
+                }
+                out.pad();
+                for (int row : rows) {
+                    out.put(players.getUsername(row).getBytes(StandardCharsets.UTF_8));
+                }
+            } else if (field == RANK_FIELD) {
+                for (int row : rows) {
+                    out.putByte(PlayerTable.getRankCode(players.getRank(row)));
+                }
+            } else {
+                int column = STAT_OF_FIELD[field];
+                for (int row : rows) {
+                    out.putDouble(players.getStat(row, column));
+                }
+            }
+            out.pad();
+        }
+
+        // End of stream marker
+        out.putInt(ArrowFormat.CONTINUATION);
+        out.putInt(0);
+
+        if (file) {
+            byte[] footer = footer(
+                    new long[] {dictionaryOffset, dictionaryMetadata, dictionaryLayout.bodyLength},
+                    new long[] {batchOffset, batchMetadata, layout.bodyLength});
+            out.put(footer);
+            out.putInt(footer.length);
+            out.put(ArrowFormat.MAGIC);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a message's continuation marker, metadata length and metadata (the body goes right after).
+     *
+     * @return the length of the message before its body, as the footer wants it
+     */
+    private static int writeMessage(Output out, byte[] metadata) throws IOException {
+        out.putInt(ArrowFormat.CONTINUATION);
+        out.putInt(metadata.length);
+        out.put(metadata);
+        return 8 + metadata.length;
+    }
+
+    private static byte[] schemaMessage() {
+        ArrowFormat.Builder b = new ArrowFormat.Builder();
+        ArrowFormat.Builder.TableBuilder message = b.startTable(5)
+                .addShort(ArrowFormat.MESSAGE_VERSION, ArrowFormat.VERSION)
+                .addByte(ArrowFormat.MESSAGE_HEADER_TYPE, ArrowFormat.HEADER_SCHEMA)
+                .addOffset(ArrowFormat.MESSAGE_HEADER)
+                .addLong(ArrowFormat.MESSAGE_BODY_LENGTH, 0);
+        b.setRoot(message.end());
+        b.link(message.fieldPosition(ArrowFormat.MESSAGE_HEADER), addSchema(b));
+        return b.finish();
+    }
+
+    /**
+     * A RecordBatch message, or a DictionaryBatch message (for the rank dictionary) wrapped around one.
+     */
+    private static byte[] batchMessage(byte headerType, long length, Layout layout) {
+        ArrowFormat.Builder b = new ArrowFormat.Builder();
+        ArrowFormat.Builder.TableBuilder message = b.startTable(5)
+                .addShort(ArrowFormat.MESSAGE_VERSION, ArrowFormat.VERSION)
+                .addByte(ArrowFormat.MESSAGE_HEADER_TYPE, headerType)
+                .addOffset(ArrowFormat.MESSAGE_HEADER)
+                .addLong(ArrowFormat.MESSAGE_BODY_LENGTH, layout.bodyLength);
+        b.setRoot(message.end());
+
+        if (headerType == ArrowFormat.HEADER_DICTIONARY_BATCH) {
+            ArrowFormat.Builder.TableBuilder dictionary = b.startTable(3)
+                    .addLong(ArrowFormat.DICTIONARY_BATCH_ID, RANK_DICTIONARY_ID)
+                    .addOffset(ArrowFormat.DICTIONARY_BATCH_DATA)
+                    .addBoolean(ArrowFormat.DICTIONARY_BATCH_IS_DELTA, false);
+            b.link(message.fieldPosition(ArrowFormat.MESSAGE_HEADER), dictionary.end());
+            b.link(dictionary.fieldPosition(ArrowFormat.DICTIONARY_BATCH_DATA), addRecordBatch(b, length, layout));
+        } else {
+            b.link(message.fieldPosition(ArrowFormat.MESSAGE_HEADER), addRecordBatch(b, length, layout));
+        }
+        return b.finish();
+    }
+
+    private static int addRecordBatch(ArrowFormat.Builder b, long length, Layout layout) {
+        ArrowFormat.Builder.TableBuilder batch = b.startTable(5)
+                .addLong(ArrowFormat.RECORD_BATCH_LENGTH, length)
+                .addOffset(ArrowFormat.RECORD_BATCH_NODES)
+                .addOffset(ArrowFormat.RECORD_BATCH_BUFFERS);
+        int table = batch.end();
+        long[] nodes = Arrays.copyOf(layout.nodes, layout.nodeCount);
+        long[] buffers = Arrays.copyOf(layout.buffers, layout.bufferCount);
+        b.link(batch.fieldPosition(ArrowFormat.RECORD_BATCH_NODES), b.addLongStructVector(nodes, 2));
+        b.link(batch.fieldPosition(ArrowFormat.RECORD_BATCH_BUFFERS), b.addLongStructVector(buffers, 2));
+        return table;
+    }
+
+    private static int addSchema(ArrowFormat.Builder b) {
+        ArrowFormat.Builder.TableBuilder schema = b.startTable(4)
+                .addShort(ArrowFormat.SCHEMA_ENDIANNESS, ArrowFormat.ENDIANNESS_LITTLE)
+                .addOffset(ArrowFormat.SCHEMA_FIELDS);
+        int table = schema.end();
+        int fields = b.addOffsetVector(FIELDS.length);
+        b.link(schema.fieldPosition(ArrowFormat.SCHEMA_FIELDS), fields);
+        for (int field = 0; field < FIELDS.length; field++) {
+            b.link(ArrowFormat.Builder.vectorElement(fields, field), addField(b, field));
+        }
+        return table;
+    }
+
+    /**
+     * One column of the schema: float64 for the stats, Utf8 for the username, and Utf8 with int8
+     * dictionary indices for the rank.
+     */
+    private static int addField(ArrowFormat.Builder b, int field) {
+        boolean stat = STAT_OF_FIELD[field] >= 0;
+        boolean dictionary = field == RANK_FIELD;
+        ArrowFormat.Builder.TableBuilder column = b.startTable(7)
+                .addOffset(ArrowFormat.FIELD_NAME)
+                .addBoolean(ArrowFormat.FIELD_NULLABLE, false)
+                .addByte(ArrowFormat.FIELD_TYPE_TYPE, stat ? ArrowFormat.TYPE_FLOATING_POINT : ArrowFormat.TYPE_UTF8)
+                .addOffset(ArrowFormat.FIELD_TYPE)
+                .addOffset(ArrowFormat.FIELD_CHILDREN);
+        if (dictionary) {
+            column.addOffset(ArrowFormat.FIELD_DICTIONARY);
+        }
+        int table = column.end();
+        b.link(column.fieldPosition(ArrowFormat.FIELD_NAME), b.addString(FIELDS[field]));
+
+        ArrowFormat.Builder.TableBuilder type = b.startTable(1);
+        if (stat) {
+            type.addShort(ArrowFormat.FLOATING_POINT_PRECISION, ArrowFormat.PRECISION_DOUBLE);
+        }
+        b.link(column.fieldPosition(ArrowFormat.FIELD_TYPE), type.end());
+        b.link(column.fieldPosition(ArrowFormat.FIELD_CHILDREN), b.addOffsetVector(0));
+
+        if (dictionary) {
+            ArrowFormat.Builder.TableBuilder encoding = b.startTable(4)
+                    .addLong(ArrowFormat.DICTIONARY_ENCODING_ID, RANK_DICTIONARY_ID)
+                    .addOffset(ArrowFormat.DICTIONARY_ENCODING_INDEX_TYPE);
+            b.link(column.fieldPosition(ArrowFormat.FIELD_DICTIONARY), encoding.end());
+            ArrowFormat.Builder.TableBuilder indexType = b.startTable(2)
+                    .addInt(ArrowFormat.INT_BIT_WIDTH, 8)
+                    .addBoolean(ArrowFormat.INT_IS_SIGNED, true);
+            b.link(encoding.fieldPosition(ArrowFormat.DICTIONARY_ENCODING_INDEX_TYPE), indexType.end());
+        }
+        return table;
+    }
+
+    /**
+     * The file footer: the schema again, and where the dictionary and record batch messages are.
+     * Each block is {offset, metadata length, body length}.
+     */
+    private static byte[] footer(long[] dictionaryBlock, long[] recordBatchBlock) {
+        ArrowFormat.Builder b = new ArrowFormat.Builder();
+        ArrowFormat.Builder.TableBuilder footer = b.startTable(5)
+                .addShort(ArrowFormat.FOOTER_VERSION, ArrowFormat.VERSION)
+                .addOffset(ArrowFormat.FOOTER_SCHEMA)
+                .addOffset(ArrowFormat.FOOTER_DICTIONARIES)
+                .addOffset(ArrowFormat.FOOTER_RECORD_BATCHES);
+        b.setRoot(footer.end());
+        b.link(footer.fieldPosition(ArrowFormat.FOOTER_SCHEMA), addSchema(b));
+        b.link(footer.fieldPosition(ArrowFormat.FOOTER_DICTIONARIES), b.addLongStructVector(dictionaryBlock, 3));
+        b.link(footer.fieldPosition(ArrowFormat.FOOTER_RECORD_BATCHES), b.addLongStructVector(recordBatchBlock, 3));
+        return b.finish();
+    }
+
+    /**
+     * How many bytes a string takes in UTF-8, without encoding it.
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Layout
+     * The field nodes ({length, null count}) and buffers ({offset in the body, length}) of a batch, with each
+     * buffer starting on a multiple of 8 bytes.
+     */
+    private static final class Layout {
+        private final long[] nodes;
+        private final long[] buffers;
+        private int nodeCount;
+        private int bufferCount;
+        private long bodyLength;
+
+        Layout(int fields) {
+            nodes = new long[fields * 2];
+            buffers = new long[fields * 3 * 2];
+        }
+
+        void node(long length) {
+            nodes[nodeCount++] = length;
+            nodes[nodeCount++] = 0;
+        }
+
+        void buffer(long length) {
+            buffers[bufferCount++] = bodyLength;
+            buffers[bufferCount++] = length;
+            bodyLength += ArrowFormat.pad(length);
+        }
+    }
+
+    /**
+     * Output
+     * Little-endian writes through one direct buffer, keeping track of how far into the file we are.
+     */
+    private static final class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return position + buffer.position();
+        }
+
+        void putByte(int value) throws IOException {
+            room(1);
+            buffer.put((byte) value);
+        }
+
+        void putInt(int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            room(8);
+            buffer.putDouble(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int done = 0;
+            while (done < bytes.length) {
+                room(1);
+                int chunk = Math.min(bytes.length - done, buffer.remaining());
+                buffer.put(bytes, done, chunk);
+                done += chunk;
+            }
+        }
+
+        /**
+         * Zeros up to the next multiple of 8 bytes.
+         */
+        void pad() throws IOException {
+            while (position() % 8 != 0) {
+                putByte(0);
+            }
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package cpt;
 
+import javafx.application.Platform;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.ScatterChart;
 import javafx.scene.chart.XYChart;
@@ -8,7 +9,12 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.util.Duration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  * ChartManager
@@ -23,10 +29,60 @@ public class ChartManager {
 
 
     // These are used in most methods, so they are class variables
-    private List<Player> players;
+    private PlayerTable players;
+    private PercentileIndex percentiles;
     private NumberAxis xAxis = new NumberAxis();
     private NumberAxis yAxis = new NumberAxis();
 
+    // Zoomable chart mode, the scatter chart is only rebuilt when it's actually on screen
+    private ZoomChart zoomChart;
+    private boolean zoomMode;
+    private boolean scatterStale;
+    private String xParam;
+    private String yParam;
+
+    // More players than this would mean way too many nodes for the ScatterChart, so we start in zoom mode
+    // (and stay there, the zoom toggle gets turned off)
+    public static final int SCATTER_POINT_LIMIT = 100000;
+
+    // Told whenever reloading the data forces zoom mode on, or lets the scatter chart back in
+    private Consumer<Boolean> zoomModeListener;
+
+    // Prepared views (series for the scatter chart, projections for the zoom chart) we can go back to quickly
+    private RenderCache renderCache;
+    private int dataVersion;
+    private int filter = ZoomChart.ALL_RANKS;
+    private RenderCache.ViewKey scatterKey;
+
+    // The nine rank series in the scatter chart right now, D rank first
+    private XYChart.Series<Number, Number>[] scatterSeries;
+
+    // Suspicious players, highlighted on both charts once they've been found
+    private final OutlierEngine outlierEngine = new OutlierEngine();
+    private Consumer<List<OutlierEngine.Outlier>> outlierListener;
+    private int[] outlierRows = new int[0];
+    private XYChart.Series<Number, Number> outlierSeries;
+
+    // The outlier rings are grouped by rank, rank r's are outlierSeries' data from outlierRankStart[r] up to
+    // outlierRankStart[r + 1] - 1, so toggling a rank only touches its own rings
+    private final int[] outlierRankStart = new int[TilePyramid.LAYERS + 1];
+
+    // Bumped every time the zoom chart's selection changes, so a summary that finishes late is thrown away
+    private int selectionGeneration;
+
+    // Colours of the rank buckets as ARGB ints (60% opacity, same as the circles), D rank first
+    private static final int[] RANK_ARGB = {
+        0x99907591, // D rank
+        0x99733E8F, // C rank
+        0x994F64C9, // B rank
+        0x9946AD51, // A rank
+        0x99E0A71B, // S rank
+        0x99DB8B1F, // SS rank
+        0x99FF3813, // U rank
+        0x99FF45FF, // X rank
+        0x99A763EA  // X+ rank
+    };
+
     /**
      * ChartManager Constructor
      * Initializes the ChartManager with the given list of players.
@@ -34,7 +90,20 @@ public class ChartManager {
      * @param players The list of Player objects containing the data to be visualized.
      */
     public ChartManager(List<Player> players) {
+        this(new HeapPlayerTable(players), 256L * 1024 * 1024);
+    }
+
+    /**
+     * ChartManager Constructor
+     * Initializes the ChartManager with the given table of players and a memory cap for cached views.
+     * 
+     * @param players The table of players (on or off the heap) containing the data to be visualized.
+     * @param renderCacheBytes Roughly how much memory (in bytes) cached chart views are allowed to use.
+     */
+    public ChartManager(PlayerTable players, long renderCacheBytes) {
         this.players = players;
+        this.percentiles = new PercentileIndex(players);
+        this.renderCache = new RenderCache(renderCacheBytes);
     }
 
     /**
@@ -50,6 +119,10 @@ public class ChartManager {
      */
     public ScatterChart<Number, Number> createChart(String xParam, String yParam) {
 
+        // Remember the axes for when the chart mode is switched
+        this.xParam = xParam;
+        this.yParam = yParam;
+
         // Change axis title
         xAxis.setLabel(xParam);
         yAxis.setLabel(yParam);
@@ -58,97 +131,6 @@ public class ChartManager {
         ScatterChart<Number, Number> scatterChart = new ScatterChart<>(xAxis, yAxis);
         scatterChart.setTitle("TETR.IO stat comparisons");
 
-        // Create series by rank for color coding
-        XYChart.Series<Number, Number>[] series = new XYChart.Series[9];
-        for (int i = 0; i < series.length; i++) {
-            series[i] = new XYChart.Series<>();
-        }
-
-        series[0].setName("D rank");
-        series[1].setName("C rank");
-        series[2].setName("B rank");
-        series[3].setName("A rank");
-        series[4].setName("S rank");
-        series[5].setName("SS rank");
-        series[6].setName("U rank");
-        series[7].setName("X rank");
-        series[8].setName("X+ rank");
-
-        // Efficiently process data points
-        int log = 1;
-        for (Player player : players) {
-            XYChart.Data<Number, Number> dataPoint = new XYChart.Data<>(getPlayerAttribute(player, xParam), getPlayerAttribute(player, yParam));
-            switch (player.getRank()) {
-                case "d":
-                case "d+":
-                    dataPoint.setNode(new Circle(4, Color.rgb(144, 117, 145, 0.6)));
-                    series[0].getData().add(dataPoint);
-                    break;
-                case "c":
-                case "c-":
-                case "c+":
-                    dataPoint.setNode(new Circle(4, Color.rgb(115, 62, 143, 0.6)));
-                    series[1].getData().add(dataPoint);
-                    break;
-                case "b":
-                case "b-":
-                case "b+":
-                    dataPoint.setNode(new Circle(4, Color.rgb(79, 100, 201, 0.6)));
-                    series[2].getData().add(dataPoint);
-                    break;
-                case "a":
-                case "a-":
-                case "a+":
-                    dataPoint.setNode(new Circle(4, Color.rgb(70, 173, 81, 0.6)));
-                    series[3].getData().add(dataPoint);
-                    break;
-                case "s":
-                case "s-":
-                case "s+":
-                    dataPoint.setNode(new Circle(4, Color.rgb(224, 167, 27, 0.6)));
-                    series[4].getData().add(dataPoint);
-                    break;
-                case "ss":
-                    dataPoint.setNode(new Circle(4, Color.rgb(219, 139, 31, 0.6)));
-                    series[5].getData().add(dataPoint);
-                    break;
-                case "u":
-                    dataPoint.setNode(new Circle(4, Color.rgb(255, 56, 19, 0.6)));
-                    series[6].getData().add(dataPoint);
-                    break;
-                case "x":
-                    dataPoint.setNode(new Circle(4, Color.rgb(255, 69, 255, 0.6)));
-                    series[7].getData().add(dataPoint);
-                    break;
-                case "x+":
-                    dataPoint.setNode(new Circle(4, Color.rgb(167, 99, 234, 0.6)));
-                    series[8].getData().add(dataPoint);
-                    break;
-            }
-
-            // Add tooltip to data points
-            Tooltip tooltip = new Tooltip("Username: " + player.getUsername() + "\nRank: " + player.getRank() + 
-                            "\nTR: " + player.getTr() + "\nGlicko: " + player.getGlicko() +
-                            "\nRD: " + player.getRd() + "\nAPM: " + player.getApm() +
-                            "\nPPS: " + player.getPps() + "\nVS: " + player.getVs());
-                            tooltip.setShowDelay(Duration.seconds(0));
-            Tooltip.install(dataPoint.getNode(), tooltip);  // Attach the tooltip to the data point
-            
-            // Log progress
-            if (log % 1000 == 0 || log == players.size()) {
-                System.out.println("Loaded " + log + " out of " + players.size() + " players");
-            }
-            log++;
-        }
-
-        System.out.println("Added points to chart"); // Debug logging
-
-        // Add data to chart
-        for (XYChart.Series<Number, Number> serie : series) {
-            scatterChart.getData().add(serie);
-            System.out.println("Processed series " + serie.getName());
-        }
-
         /* Hide legend since i can't figure out how to set the scatterplot legend to have the same
         colours as the data points, by default it rotates through a couple set shapes and 
         colours. I spent 2 hours on chatGPT as well as manually digging through the documentation.
@@ -161,6 +143,15 @@ public class ChartManager {
         */
         scatterChart.setLegendVisible(false);
 
+        // Big (usually off-heap) datasets go straight to the zoom chart, if there is one
+        if (!canShowScatter()) {
+            System.out.println(players.size() + " players is too many for the scatter chart, using the zoom chart");
+            zoomMode = true;
+        }
+
+        // Fill the chart with the same code that updates it
+        updateChart(scatterChart, xParam, yParam);
+
         return scatterChart;
     }
 
@@ -176,6 +167,23 @@ public class ChartManager {
      */
     public void updateChart(ScatterChart<Number, Number> scatterChart, String xParam, String yParam) {
 
+        this.xParam = xParam;
+        this.yParam = yParam;
+
+        // In zoom mode the scatter chart isn't visible, so skip rebuilding it until it is
+        if (zoomMode) {
+            zoomChart.setAxes(xParam, yParam);
+            scatterStale = true;
+            return;
+        }
+        scatterStale = false;
+
+        // Nothing to do if the chart is already showing this exact view
+        RenderCache.ViewKey key = new RenderCache.ViewKey(xParam, yParam, dataVersion);
+        if (key.equals(scatterKey)) {
+            return;
+        }
+
         // Disable animations for faster loading
         scatterChart.setAnimated(false);
 
@@ -183,10 +191,49 @@ public class ChartManager {
         xAxis.setLabel(xParam);
         yAxis.setLabel(yParam);
 
+        // Only build new series if this view isn't cached already, going back to a view we've seen
+        // just puts the old series (and all their circles and tooltips) back in the chart
+        RenderCache.PreparedView view = renderCache.get(key);
+        if (view == null) {
+            view = new RenderCache.PreparedView();
+        }
+        if (view.getSeries() == null) {
+            view.setSeries(buildSeries(xParam, yParam));
+            renderCache.put(key, view);
+        } else {
+            System.out.println("Reusing cached chart for " + xParam + " vs " + yParam);
+        }
+
         System.out.println("Clearing data");
         scatterChart.getData().clear(); // Clear existing data
         System.out.println("Cleared data");
 
+        // Re-enable animations
+        scatterChart.setAnimated(true);
+
+        // Add series to the chart, with the outlier rings on top, then hide the ranks that are filtered out
+        scatterChart.getData().addAll(view.getSeries());
+        scatterSeries = view.getSeries();
+        showRanks(scatterSeries);
+        outlierSeries = buildOutlierSeries(xParam, yParam);
+        scatterChart.getData().add(outlierSeries);
+        scatterChart.setStyle("-fx-padding: 10px;");
+        scatterKey = key;
+    }
+
+    /**
+     * buildSeries
+     * Creates one series per rank bucket, with a coloured circle and a tooltip for every player.
+     * This is the slow part of updating the chart, which is why the result gets cached. Every rank is built,
+     * even ones that are filtered out, so showing them again doesn't mean building them again.
+     * 
+     * @param xParam The X-axis attribute (e.g., "TR", "APM").
+     * @param yParam The Y-axis attribute (e.g., "Glicko", "RD").
+     * @return The nine series, D rank first.
+     * @author R. Shi
+     */
+    private XYChart.Series<Number, Number>[] buildSeries(String xParam, String yParam) {
+
         // Create new series for each rank
         XYChart.Series<Number, Number>[] series = new XYChart.Series[9];
         for (int i = 0; i < series.length; i++) {
@@ -206,13 +253,22 @@ public class ChartManager {
         // this is a variable instead of player.indexOf() because it's less resource intensive
         int log = 1;
 
+        // The tooltips say where the player stands in every stat. The scatter chart is only used for small
+        // tables, so sort all six on a worker thread now instead of on the JavaFX thread at the first hover.
+        // (A percentile axis still sorts its own column right here, at most SCATTER_POINT_LIMIT values.)
+        percentiles.buildAsync(PlayerTable.TR, PlayerTable.GLICKO, PlayerTable.RD, PlayerTable.APM,
+                PlayerTable.PPS, PlayerTable.VS);
+
         // Process player data points
-        for (Player player : players) {
+        for (int row = 0; row < players.size(); row++) {
+            Player player = players.getPlayer(row);
 
             // it's variables for readability, you can just plug it in to the 3rd line there
 
-            double xValue = getPlayerAttribute(player, xParam);
-            double yValue = getPlayerAttribute(player, yParam);
+            double xValue = PercentileIndex.isPercentile(xParam) ? percentiles.getAxisValue(row, xParam)
+                    : getPlayerAttribute(player, xParam);
+            double yValue = PercentileIndex.isPercentile(yParam) ? percentiles.getAxisValue(row, yParam)
+                    : getPlayerAttribute(player, yParam);
             XYChart.Data<Number, Number> dataPoint = new XYChart.Data<>(xValue, yValue);
 
             // Color code data points based on rank
@@ -264,11 +320,16 @@ public class ChartManager {
                     break;
             }
 
-            // Add tooltip to data points
-            Tooltip tooltip = new Tooltip("Username: " + player.getUsername() + "\nRank: " + player.getRank() + 
-                            "\nTR: " + player.getTr() + "\nGlicko: " + player.getGlicko() +
-                            "\nRD: " + player.getRd() + "\nAPM: " + player.getApm() +
-                            "\nPPS: " + player.getPps() + "\nVS: " + player.getVs());
+            // Add tooltip to data points, with where the player stands in each stat (worked out when it's
+            // shown, so the standings are there once the columns have been sorted)
+            Tooltip tooltip = new Tooltip();
+            tooltip.setOnShowing(event -> tooltip.setText("Username: " + player.getUsername() + "\nRank: " + player.getRank() + 
+                            "\nTR: " + player.getTr() + getStanding(PlayerTable.TR, player.getTr()) +
+                            "\nGlicko: " + player.getGlicko() + getStanding(PlayerTable.GLICKO, player.getGlicko()) +
+                            "\nRD: " + player.getRd() + getStanding(PlayerTable.RD, player.getRd()) +
+                            "\nAPM: " + player.getApm() + getStanding(PlayerTable.APM, player.getApm()) +
+                            "\nPPS: " + player.getPps() + getStanding(PlayerTable.PPS, player.getPps()) +
+                            "\nVS: " + player.getVs() + getStanding(PlayerTable.VS, player.getVs())));
                             tooltip.setShowDelay(Duration.seconds(0));
             Tooltip.install(dataPoint.getNode(), tooltip);  // Attach the tooltip to the data point
                 
@@ -279,12 +340,410 @@ public class ChartManager {
             log++;
         }
 
-        // Re-enable animations
-        scatterChart.setAnimated(true);
+        return series;
+    }
 
-        // Add series to the chart
-        scatterChart.getData().addAll(series);
-        scatterChart.setStyle("-fx-padding: 10px;");
+    /**
+     * showRanks
+     * Shows the circles of the ranks that pass the filter and hides the rest. The circles (and their tooltips)
+     * are kept either way, and a series that's already right is skipped, so only the ranks that were toggled
+     * are touched. That's still one setVisible per circle of a toggled rank, so O(points in the toggled rank).
+     * 
+     * @param series The nine rank series, D rank first.
+     * @author R. Shi
+     */
+    private void showRanks(XYChart.Series<Number, Number>[] series) {
+        for (int rank = 0; rank < series.length; rank++) {
+            boolean visible = (filter & (1 << rank)) != 0;
+            List<XYChart.Data<Number, Number>> data = series[rank].getData();
+
+            // Every circle in a series is always shown or hidden together, so the first one tells us
+            if (data.isEmpty() || data.get(0).getNode().isVisible() == visible) {
+                continue;
+            }
+            for (XYChart.Data<Number, Number> dataPoint : data) {
+                dataPoint.getNode().setVisible(visible);
+            }
+        }
+    }
+
+    /**
+     * getStanding
+     * Describes where a value stands among every player's, for the tooltips.
+     * 
+     * @param column The stat column (e.g., PlayerTable.PPS).
+     * @param value The player's value.
+     * @return e.g. " (top 3.1%)", or nothing if the column is still being sorted
+     * @author R. Shi
+     */
+    private String getStanding(int column, double value) {
+        if (!percentiles.isBuilt(column)) {
+            return "";
+        }
+        return String.format(" (top %.1f%%)", 100 - percentiles.getPercentile(column, value));
+    }
+
+    /**
+     * buildOutlierSeries
+     * Creates a series with a red ring around every flagged player, drawn on top of the rank series.
+     * The rings ignore the mouse so the tooltips of the points underneath still work. Every rank gets its
+     * rings (grouped by rank), and the ones of ranks that are filtered out are just hidden.
+     * 
+     * @param xParam The X-axis attribute (e.g., "TR", "APM").
+     * @param yParam The Y-axis attribute (e.g., "Glicko", "RD").
+     * @return The outlier series (empty if outliers haven't been looked for).
+     * @author R. Shi
+     */
+    private XYChart.Series<Number, Number> buildOutlierSeries(String xParam, String yParam) {
+        XYChart.Series<Number, Number> series = new XYChart.Series<>();
+        series.setName("Outliers");
+
+        // Count the rings of each rank first, so they can be put in rank order
+        int[] ranks = new int[outlierRows.length];
+        Arrays.fill(outlierRankStart, 0);
+        for (int i = 0; i < outlierRows.length; i++) {
+            ranks[i] = players.getRankBucket(outlierRows[i]);
+            if (ranks[i] >= 0) {
+                outlierRankStart[ranks[i] + 1]++;
+            }
+        }
+        for (int rank = 0; rank < outlierRankStart.length - 1; rank++) {
+            outlierRankStart[rank + 1] += outlierRankStart[rank];
+        }
+
+        List<XYChart.Data<Number, Number>> rings = new ArrayList<>();
+        for (int rank = 0; rank < outlierRankStart.length - 1; rank++) {
+            boolean visible = (filter & (1 << rank)) != 0;
+            for (int i = 0; i < outlierRows.length; i++) {
+                if (ranks[i] != rank) {
+                    continue;
+                }
+                int row = outlierRows[i];
+                XYChart.Data<Number, Number> dataPoint = new XYChart.Data<>(percentiles.getAxisValue(row, xParam),
+                        percentiles.getAxisValue(row, yParam));
+                Circle ring = new Circle(7, Color.TRANSPARENT);
+                ring.setStroke(Color.RED);
+                ring.setStrokeWidth(2);
+                ring.setMouseTransparent(true);
+                ring.setVisible(visible);
+                dataPoint.setNode(ring);
+                rings.add(dataPoint);
+            }
+        }
+        series.getData().addAll(rings);
+        return series;
+    }
+
+    /**
+     * showOutlierRings
+     * Shows or hides the outlier rings of the ranks that were toggled, without touching the other ranks' rings.
+     * 
+     * @param toggled The bit mask of rank buckets that were just shown or hidden.
+     * @author R. Shi
+     */
+    private void showOutlierRings(int toggled) {
+        if (outlierSeries == null) {
+            return;
+        }
+        List<XYChart.Data<Number, Number>> rings = outlierSeries.getData();
+        for (int rank = 0; rank < outlierRankStart.length - 1; rank++) {
+            if ((toggled & (1 << rank)) == 0) {
+                continue;
+            }
+            boolean visible = (filter & (1 << rank)) != 0;
+            for (int i = outlierRankStart[rank]; i < outlierRankStart[rank + 1]; i++) {
+                rings.get(i).getNode().setVisible(visible);
+            }
+        }
+    }
+
+    /**
+     * findOutliers
+     * Scores every player against the normal APM/PPS/VS of their rank on a background thread, then highlights the
+     * flagged ones on both charts and hands the list to the listener. The search is redone automatically
+     * (only rescoring changed players) whenever the data is reloaded.
+     * 
+     * @param scatterChart The ScatterChart to highlight the outliers on.
+     * @param listener Gets the flagged players, most suspicious first, on the JavaFX thread.
+     * @author R. Shi
+     */
+    public void findOutliers(ScatterChart<Number, Number> scatterChart, Consumer<List<OutlierEngine.Outlier>> listener) {
+        outlierListener = listener;
+        PlayerTable source = players;
+        CompletableFuture.supplyAsync(() -> outlierEngine.score(source)).thenAccept(outliers -> Platform.runLater(() -> {
+
+            // Data got reloaded while this was running, the rescore for the new data will handle it
+            if (source != players) {
+                return;
+            }
+            outlierRows = outliers.stream().mapToInt(OutlierEngine.Outlier::getRow).toArray();
+            if (zoomChart != null) {
+                zoomChart.setHighlight(outlierRows);
+            }
+            refreshOutlierSeries(scatterChart);
+            listener.accept(outliers);
+        }));
+    }
+
+    /**
+     * Swaps the scatter chart's outlier rings for up to date ones, in the same spot so they stay on top.
+     */
+    private void refreshOutlierSeries(ScatterChart<Number, Number> scatterChart) {
+        if (outlierSeries != null) {
+            int index = scatterChart.getData().indexOf(outlierSeries);
+            outlierSeries = buildOutlierSeries(xParam, yParam);
+            if (index >= 0) {
+                scatterChart.getData().set(index, outlierSeries);
+            }
+        }
+    }
+
+    /**
+     * setSelectionListener
+     * Summarizes the players selected on the zoom chart (per-rank counts and stat summaries) on a background
+     * thread every time the selection changes, and hands the summary to the listener.
+     * 
+     * @param listener Gets the summary of the new selection on the JavaFX thread (an empty one when it's cleared).
+     * @author R. Shi
+     */
+    public void setSelectionListener(Consumer<SelectionSummary> listener) {
+        if (zoomChart == null) {
+            return;
+        }
+        zoomChart.setSelectionListener(rows -> {
+            int generation = ++selectionGeneration;
+            PercentileIndex source = percentiles;
+            CompletableFuture.supplyAsync(() -> SelectionSummary.summarize(source, rows))
+                    .thenAccept(summary -> Platform.runLater(() -> {
+                        if (generation == selectionGeneration) {
+                            listener.accept(summary);
+                        }
+                    }));
+        });
+    }
+
+    /**
+     * createZoomChart
+     * Creates the zoomable, tile based version of the chart for the same players.
+     * 
+     * @param tileCacheBytes The most memory (in bytes) the cached tiles are allowed to use.
+     * @return A ZoomChart for the players.
+     * @author R. Shi
+     */
+    public ZoomChart createZoomChart(long tileCacheBytes) {
+        zoomChart = new ZoomChart(players, percentiles, dataVersion, new TileCache(tileCacheBytes), renderCache);
+        return zoomChart;
+    }
+
+    /**
+     * setZoomMode
+     * Switches between the normal scatter chart and the zoom chart. Axis changes made while the zoom chart was
+     * showing are applied to the scatter chart when switching back.
+     * 
+     * @param zoomMode True to use the zoom chart, false to use the scatter chart.
+     * @param scatterChart The ScatterChart to bring up to date when leaving zoom mode.
+     * @author R. Shi
+     */
+    public void setZoomMode(boolean zoomMode, ScatterChart<Number, Number> scatterChart) {
+
+        // Building a node per player for millions of players would freeze the app
+        if (!zoomMode && !canShowScatter()) {
+            return;
+        }
+        this.zoomMode = zoomMode;
+        if (zoomMode) {
+            zoomChart.setAxes(xParam, yParam);
+        } else if (scatterStale) {
+            updateChart(scatterChart, xParam, yParam);
+        }
+    }
+
+    public boolean isZoomMode() {
+        return zoomMode;
+    }
+
+    /**
+     * canShowScatter
+     * Whether the normal scatter chart can show the players, it makes a node for each one so it's only allowed
+     * up to SCATTER_POINT_LIMIT players (unless there's no zoom chart to use instead).
+     * 
+     * @return False if the data has to stay in the zoom chart.
+     * @author R. Shi
+     */
+    public boolean canShowScatter() {
+        return zoomChart == null || players.size() <= SCATTER_POINT_LIMIT;
+    }
+
+    /**
+     * setZoomModeListener
+     * 
+     * @param listener Gets whether zoom mode is on every time the data is reloaded, since a reload can push
+     *                 the data over SCATTER_POINT_LIMIT and force zoom mode on.
+     * @author R. Shi
+     */
+    public void setZoomModeListener(Consumer<Boolean> listener) {
+        zoomModeListener = listener;
+    }
+
+    public PlayerTable getPlayers() {
+        return players;
+    }
+
+    /**
+     * getVisibleRows
+     * Finds the players whose rank buckets pass the current filter, i.e. the ones the chart is showing.
+     * 
+     * @return The rows of the shown players, in csv order.
+     * @author R. Shi
+     */
+    public int[] getVisibleRows() {
+        return IntStream.range(0, players.size()).filter(row -> {
+            int rank = players.getRankBucket(row);
+            return rank >= 0 && (filter & (1 << rank)) != 0;
+        }).toArray();
+    }
+
+    /**
+     * setAnimateTransitions
+     * Turns the zoom chart's sliding animation between axes on or off. The normal scatter chart never animates,
+     * since it can only show up to SCATTER_POINT_LIMIT players anyway.
+     * 
+     * @param animate True to animate axis changes in the zoom chart.
+     * @author R. Shi
+     */
+    public void setAnimateTransitions(boolean animate) {
+        if (zoomChart != null) {
+            zoomChart.setAnimateTransitions(animate);
+        }
+    }
+
+    /**
+     * setPlayers
+     * Replaces the data being charted, e.g. after reloading the csv. Every cached view of the old data is
+     * thrown away, and both charts are redrawn with the new players. Outlier rings are cleared until the
+     * outliers have been rescored against the new players.
+     * 
+     * @param players The new table of players.
+     * @param scatterChart The ScatterChart to be updated.
+     * @author R. Shi
+     */
+    public void setPlayers(PlayerTable players, ScatterChart<Number, Number> scatterChart) {
+        this.players = players;
+        this.percentiles = new PercentileIndex(players);
+        dataVersion++;
+        renderCache.invalidateBefore(dataVersion);
+        scatterKey = null;
+
+        // The outlier rows were rows of the old table, and a reload moves players around (or drops them), so
+        // the rings are cleared until the rescore below finds the outliers' new rows
+        outlierRows = new int[0];
+        if (zoomChart != null) {
+            zoomChart.setPlayers(players, percentiles, dataVersion);
+        }
+        if (!canShowScatter()) {
+            zoomMode = true;
+        }
+        updateChart(scatterChart, xParam, yParam);
+        if (zoomModeListener != null) {
+            zoomModeListener.accept(zoomMode);
+        }
+
+        // Rescore outliers if they were being shown
+        if (outlierListener != null) {
+            findOutliers(scatterChart, outlierListener);
+        }
+    }
+
+    /**
+     * setFilter
+     * Only shows the rank buckets whose bit is set in the mask (bit 0 is D rank, bit 8 is X+ rank).
+     * Nothing is rebuilt: the zoom chart stacks a different set of its cached rank layers, and the scatter
+     * chart hides or shows the circles (and outlier rings) it already has. The scatter chart's circles are
+     * JavaFX nodes, so a toggle there still costs one setVisible per point in the toggled ranks, O(points in
+     * the toggled ranks), while the zoom chart's cost doesn't depend on how many points there are.
+     * 
+     * @param filter The bit mask of rank buckets to show.
+     * @param scatterChart The ScatterChart to be updated.
+     * @author R. Shi
+     */
+    public void setFilter(int filter, ScatterChart<Number, Number> scatterChart) {
+        int toggled = this.filter ^ filter;
+        this.filter = filter;
+        if (zoomChart != null) {
+            zoomChart.setFilter(filter);
+        }
+        if (scatterSeries != null) {
+            showRanks(scatterSeries);
+        }
+        showOutlierRings(toggled);
+    }
+
+    /**
+     * getUnscoredOutlierCount
+     * 
+     * @return How many ranked players the last outlier search couldn't score because they're missing a stat.
+     * @author R. Shi
+     */
+    public int getUnscoredOutlierCount() {
+        return outlierEngine.getUnscoredCount();
+    }
+
+    public int getFilter() {
+        return filter;
+    }
+
+    /**
+     * getRankIndex
+     * Finds which of the nine rank buckets (the same ones as the chart series) a rank belongs to.
+     * 
+     * @param rank The player's rank (e.g., "a+", "ss").
+     * @return 0 for D rank up to 8 for X+ rank, or -1 if the rank isn't one of them.
+     * @author R. Shi
+     */
+    static int getRankIndex(String rank) {
+        switch (rank) {
+            case "d":
+            case "d+":
+                return 0;
+            case "c":
+            case "c-":
+            case "c+":
+                return 1;
+            case "b":
+            case "b-":
+            case "b+":
+                return 2;
+            case "a":
+            case "a-":
+            case "a+":
+                return 3;
+            case "s":
+            case "s-":
+            case "s+":
+                return 4;
+            case "ss":
+                return 5;
+            case "u":
+                return 6;
+            case "x":
+                return 7;
+            case "x+":
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * getRankArgb
+     * The colour of a rank bucket as an ARGB int, for drawing straight into pixel buffers.
+     * 
+     * @param rankIndex The rank bucket, from getRankIndex.
+     * @return The bucket's colour at 60% opacity.
+     * @author R. Shi
+     */
+    static int getRankArgb(int rankIndex) {
+        return RANK_ARGB[rankIndex];
     }
 
     /**
@@ -297,7 +756,7 @@ public class ChartManager {
      * @throws IllegalArgumentException If the provided attribute is invalid.
      * @author R. Shi
      */
-    private double getPlayerAttribute(Player player, String attribute) {
+    static double getPlayerAttribute(Player player, String attribute) {
 
         // This is a thing instead of doing player.getTr() because the thing the calls this
         // takes the combobox value as a variable
@@ -0,0 +1,288 @@
+package cpt;
+
+/**
+ * CompactPlayerTable
+ * A PlayerTable that stores each stat as a fixed-point short or int instead of a double.
+ * The csv only has limited precision (APM, PPS and VS have two decimals), so a value like 172.66 can be stored
+ * as 17266 minus the column's smallest value, which fits in a short. Decoding divides by the same power of ten,
+ * and since the division is correctly rounded it gives back exactly the same double that parsing the csv did.
+ *
+ * TR, Glicko and RD are written with about 14 decimals in the csv, which can't fit in 32 bits. Those columns
+ * are rounded to 4 decimals (or fewer if the range is too big for an int) and are marked as lossy.
+ *
+ * A Player object takes about 72 bytes for its stats, this takes 12 to 24 depending on the columns. Missing
+ * values (NaN, or infinities) are kept as a reserved code and come back as NaN.
+ *
+ * Any table can be encoded, one column at a time. Usernames are copied from tables on the heap, but a
+ * memory-mapped table (snapshot or Arrow file) is kept around for its usernames so they stay off the heap.
+ * The charts ask for whole columns with fillStat, which decodes straight from the shorts/ints in one loop.
+ *
+ * @author R. Shi
+ */
+public class CompactPlayerTable implements PlayerTable {
+
+    // Most decimals we'll try to keep
+    private static final int MAX_DECIMALS = 4;
+
+    private final QuantizedColumn[] stats = new QuantizedColumn[STAT_COUNT];
+    private final byte[] ranks;
+
+    // Usernames, either copied or read from the mapped table they came from (the other one is null)
+    private final String[] usernames;
+    private final PlayerTable nameSource;
+
+    private CompactPlayerTable(QuantizedColumn[] stats, byte[] ranks, String[] usernames, PlayerTable nameSource) {
+        System.arraycopy(stats, 0, this.stats, 0, STAT_COUNT);
+        this.ranks = ranks;
+        this.usernames = usernames;
+        this.nameSource = nameSource;
+    }
+
+    /**
+     * encode
+     * Copies a table into the compact encoding, picking the scale and storage type of each column from its values.
+     * Only one column of doubles is held at a time, so encoding a mapped table doesn't need 48 bytes a player of heap.
+     *
+     * @param source the table to copy
+     * @return the compact copy
+     */
+    public static CompactPlayerTable encode(PlayerTable source) {
+        int rows = source.size();
+
+        QuantizedColumn[] stats = new QuantizedColumn[STAT_COUNT];
+        double[] values = new double[rows];
+        for (int column = 0; column < STAT_COUNT; column++) {
+            source.fillStat(column, values);
+            stats[column] = QuantizedColumn.encode(values, rows);
+        }
+
+        byte[] ranks = new byte[rows];
+        for (int row = 0; row < rows; row++) {
+            ranks[row] = (byte) PlayerTable.getRankCode(source.getRank(row));
+        }
+
+        // Mapped tables keep their usernames off the heap
+        if (source instanceof OffHeapPlayerTable || source instanceof ArrowPlayerTable) {
+            return new CompactPlayerTable(stats, ranks, null, source);
+        }
+        String[] usernames = new String[rows];
+        for (int row = 0; row < rows; row++) {
+            usernames[row] = source.getUsername(row);
+        }
+        return new CompactPlayerTable(stats, ranks, usernames, null);
+    }
+
+    /**
+     * encode
+     * Encodes columns that were read straight from a csv, without any Player objects in between.
+     *
+     * @param columns the six stat columns, in PlayerTable column order (at least rows long each)
+     * @param rows how many players there are
+     * @param ranks each player's index into PlayerTable.RANKS
+     * @param usernames each player's username
+     * @return the compact table
+     */
+    public static CompactPlayerTable encode(double[][] columns, int rows, byte[] ranks, String[] usernames) {
+        QuantizedColumn[] stats = new QuantizedColumn[STAT_COUNT];
+        for (int column = 0; column < STAT_COUNT; column++) {
+            stats[column] = QuantizedColumn.encode(columns[column], rows);
+        }
+        return new CompactPlayerTable(stats, ranks, usernames, null);
+    }
+
+    @Override
+    public int size() {
+        return ranks.length;
+    }
+
+    @Override
+    public double getStat(int row, int column) {
+        return stats[column].get(row);
+    }
+
+    @Override
+    public String getRank(int row) {
+        return RANKS[ranks[row]];
+    }
+
+    @Override
+    public String getUsername(int row) {
+        return usernames != null ? usernames[row] : nameSource.getUsername(row);
+    }
+
+    @Override
+    public void fillStat(int column, double[] out) {
+        stats[column].decode(out);
+    }
+
+    /**
+     * @param column the stat column (e.g., PlayerTable.TR)
+     * @return how the column is stored, for logging
+     */
+    public QuantizedColumn getStatColumn(int column) {
+        return stats[column];
+    }
+
+    /**
+     * @return about how many bytes the stat columns take (not counting usernames)
+     */
+    public long getStatBytes() {
+        long bytes = ranks.length;
+        for (QuantizedColumn column : stats) {
+            bytes += (long) column.getBytesPerValue() * ranks.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * QuantizedColumn
+     * One stat column stored as (value * 10^decimals - offset), in a short when the range fits in 16 bits,
+     * otherwise in an int. Rounded (lossy) columns are off by at most half of their last decimal,
+     * e.g. 0.00005 with 4 decimals.
+     */
+    public static final class QuantizedColumn {
+
+        // Stored codes for a missing value, the largest unsigned short or any negative int
+        private static final int MISSING_SHORT = 0xFFFF;
+        private static final int MISSING_INT = -1;
+
+        private final int decimals;
+        private final double scale;
+        private final long offset;
+        private final boolean lossy;
+
+        // Only one of these is used
+        private final short[] shorts;
+        private final int[] ints;
+
+        private QuantizedColumn(int decimals, long offset, boolean lossy, short[] shorts, int[] ints) {
+            this.decimals = decimals;
+            this.scale = Math.pow(10, decimals);
+            this.offset = offset;
+            this.lossy = lossy;
+            this.shorts = shorts;
+            this.ints = ints;
+        }
+
+        /**
+         * Picks the fewest decimals that store every value exactly. If no amount up to MAX_DECIMALS does,
+         * keeps as many decimals as fit in an int and rounds. Only the first length values are used.
+         */
+        static QuantizedColumn encode(double[] values, int length) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < length; i++) {
+                if (Double.isFinite(values[i])) {
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+            }
+            if (min > max) {
+                min = 0;
+                max = 0;
+            }
+
+            // Fewest decimals that round-trip exactly and still fit in an int
+            int decimals = -1;
+            for (int d = 0; d <= MAX_DECIMALS && decimals < 0; d++) {
+                if (fitsInInt(min, max, d) && roundTrips(values, length, d)) {
+                    decimals = d;
+                }
+            }
+
+            // Otherwise as many decimals as fit, rounded
+            boolean lossy = decimals < 0;
+            if (lossy) {
+                decimals = MAX_DECIMALS;
+                while (decimals > 0 && !fitsInInt(min, max, decimals)) {
+                    decimals--;
+                }
+            }
+
+            double scale = Math.pow(10, decimals);
+            long offset = Math.round(min * scale);
+            long range = Math.round(max * scale) - offset;
+
+            // Unsigned shorts go up to 65535, which is saved for missing values
+            if (range < MISSING_SHORT) {
+                short[] shorts = new short[length];
+                for (int i = 0; i < length; i++) {
+                    shorts[i] = (short) (Double.isFinite(values[i])
+                            ? Math.round(values[i] * scale) - offset : MISSING_SHORT);
+                }
+                return new QuantizedColumn(decimals, offset, lossy, shorts, null);
+            }
+            int[] ints = new int[length];
+            for (int i = 0; i < length; i++) {
+                ints[i] = Double.isFinite(values[i]) ? (int) (Math.round(values[i] * scale) - offset) : MISSING_INT;
+            }
+            return new QuantizedColumn(decimals, offset, lossy, null, ints);
+        }
+
+        /**
+         * Whether every value comes back as exactly the same double with this many decimals.
+         */
+        private static boolean roundTrips(double[] values, int length, int decimals) {
+            double scale = Math.pow(10, decimals);
+            for (int i = 0; i < length; i++) {
+                if (Double.isFinite(values[i]) && Math.round(values[i] * scale) / scale != values[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Whether the scaled range of the column fits in a (non-negative) int.
+         */
+        private static boolean fitsInInt(double min, double max, int decimals) {
+            double scale = Math.pow(10, decimals);
+            return (max - min) * scale < Integer.MAX_VALUE && Math.abs(max * scale) < Long.MAX_VALUE / 2
+                    && Math.abs(min * scale) < Long.MAX_VALUE / 2;
+        }
+
+        /**
+         * Decodes one value. Dividing (instead of multiplying by 0.01 and so on) is what makes it exact.
+         */
+        public double get(int row) {
+            long stored = shorts != null ? (shorts[row] & 0xFFFF) : ints[row];
+            if (stored == (shorts != null ? MISSING_SHORT : MISSING_INT)) {
+                return Double.NaN;
+            }
+            return (stored + offset) / scale;
+        }
+
+        /**
+         * Decodes the whole column into out, the same values as get gives.
+         */
+        public void decode(double[] out) {
+            if (shorts != null) {
+                for (int row = 0; row < shorts.length; row++) {
+                    int stored = shorts[row] & 0xFFFF;
+                    out[row] = stored == MISSING_SHORT ? Double.NaN : (stored + offset) / scale;
+                }
+                return;
+            }
+            for (int row = 0; row < ints.length; row++) {
+                int stored = ints[row];
+                out[row] = stored < 0 ? Double.NaN : (stored + offset) / scale;
+            }
+        }
+
+        public int size() {
+            return shorts != null ? shorts.length : ints.length;
+        }
+
+        public int getDecimals() {
+            return decimals;
+        }
+
+        public boolean isLossy() {
+            return lossy;
+        }
+
+        public int getBytesPerValue() {
+            return shorts != null ? 2 : 4;
+        }
+    }
+}
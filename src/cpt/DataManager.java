@@ -1,9 +1,20 @@
 package cpt;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -14,6 +25,253 @@ import java.util.List;
  */
 public class DataManager {
 
+    // CSV files bigger than this are loaded off-heap through a snapshot instead of as Player objects
+    public static final long OFF_HEAP_CSV_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Loads players from a CSV file, a snapshot file or an Arrow file, picking the best way to store them.
+     * Snapshot files (.snap) and Arrow files (.arrow, .arrows, .feather) are memory-mapped. Big CSV files are converted to a snapshot next to them first
+     * (reusing it if it's newer than the CSV) and then mapped. Small CSV files become a normal list of players.
+     * 
+     * @param filePath the path to the CSV or snapshot file to be loaded
+     * @return a table of the players, empty if the file couldn't be loaded
+     */
+    public static PlayerTable loadPlayers(String filePath) {
+        try {
+            if (filePath.endsWith(".snap")) {
+                return OffHeapPlayerTable.open(Path.of(filePath));
+            }
+            if (filePath.endsWith(".arrow") || filePath.endsWith(".arrows") || filePath.endsWith(".feather")) {
+                return ArrowPlayerTable.open(Path.of(filePath));
+            }
+
+            File csv = new File(filePath);
+            if (csv.length() > OFF_HEAP_CSV_BYTES) {
+                File snapshot = new File(filePath.replaceAll("\\.csv$", "") + ".snap");
+                if (!snapshot.exists() || snapshot.lastModified() < csv.lastModified()) {
+                    convertCsvToSnapshot(filePath, snapshot.getPath());
+                }
+                return OffHeapPlayerTable.open(snapshot.toPath());
+            }
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // Handle any I/O or parsing errors
+            e.printStackTrace();
+            return new HeapPlayerTable(new ArrayList<>());
+        }
+        return new HeapPlayerTable(loadPlayersFromCsv(filePath));
+    }
+
+    // Which csv field each stat column is in (rank sits between tr and glicko)
+    private static final int[] CSV_STAT_FIELDS = {1, 3, 4, 5, 6, 7};
+
+    /**
+     * Loads players like loadPlayers, optionally encoding the stats into compact fixed-point columns.
+     * Small CSV files are read straight into the compact columns without making Player objects. Snapshots, Arrow
+     * files and big CSV files are mapped first and then encoded a column at a time (their usernames stay mapped).
+     * 
+     * @param filePath the path to the CSV or snapshot file to be loaded
+     * @param compact whether to store the stats as a CompactPlayerTable
+     * @return a table of the players, empty if the file couldn't be loaded
+     */
+    public static PlayerTable loadPlayers(String filePath, boolean compact) {
+        if (!compact) {
+            return loadPlayers(filePath);
+        }
+        boolean mapped = filePath.endsWith(".snap") || filePath.endsWith(".arrow") || filePath.endsWith(".arrows")
+                || filePath.endsWith(".feather") || new File(filePath).length() > OFF_HEAP_CSV_BYTES;
+        CompactPlayerTable compactPlayers = mapped ? CompactPlayerTable.encode(loadPlayers(filePath))
+                : loadCompactFromCsv(filePath);
+
+        String[] names = {"TR", "Glicko", "RD", "APM", "PPS", "VS"};
+        for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+            CompactPlayerTable.QuantizedColumn stat = compactPlayers.getStatColumn(column);
+            System.out.println(names[column] + ": " + stat.getDecimals() + " decimals in " + stat.getBytesPerValue()
+                    + " bytes" + (stat.isLossy() ? " (rounded)" : ""));
+        }
+        System.out.println("Compact stats use " + compactPlayers.getStatBytes() / 1024 + " KB");
+        return compactPlayers;
+    }
+
+    /**
+     * Converts a CSV file into a columnar snapshot file that OffHeapPlayerTable can memory-map.
+     * The CSV is read twice: once to count the rows and username bytes so the file can be laid out, and once
+     * to write each row straight into the mapped file. No Player objects are made, so this works on CSV files
+     * far bigger than the heap.
+     *
+     * The snapshot is written to a temporary file in the same folder first and only renamed over snapshotPath
+     * once it's complete. An OffHeapPlayerTable that has the old snapshot mapped keeps reading the old file,
+     * and a CSV that fails halfway doesn't leave a broken snapshot behind (which would look newer than the CSV
+     * and get reused).
+     * 
+     * @param csvPath the path to the CSV file, with the same columns as loadPlayersFromCsv
+     * @param snapshotPath the path of the snapshot file to write
+     * @throws IOException if either file can't be read or written, or a row of the CSV can't be parsed
+     */
+    public static void convertCsvToSnapshot(String csvPath, String snapshotPath) throws IOException {
+        Path target = Path.of(snapshotPath).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            long rows = writeSnapshot(csvPath, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Wrote snapshot of " + rows + " players to " + snapshotPath);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Does the two passes of convertCsvToSnapshot into the given file.
+     *
+     * @return how many players were written
+     */
+    private static long writeSnapshot(String csvPath, Path snapshot) throws IOException {
+
+        // First pass, count the rows and the bytes needed for the usernames
+        long rows = 0;
+        long nameBytes = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(csvPath))) {
+            br.readLine(); // Skip the header row
+            String line;
+            while ((line = br.readLine()) != null) {
+
+                // Blank lines (and anything else without a comma) aren't players
+                int comma = line.indexOf(',');
+                if (comma < 0) {
+                    continue;
+                }
+                nameBytes += line.substring(0, comma).getBytes(StandardCharsets.UTF_8).length;
+                rows++;
+            }
+        }
+
+        // Second pass, write every row into its place in each column
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedReader br = new BufferedReader(new FileReader(csvPath))) {
+
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    OffHeapPlayerTable.fileSize(rows, nameBytes), arena);
+            file.set(OffHeapPlayerTable.LONG, 0, OffHeapPlayerTable.MAGIC);
+            file.set(OffHeapPlayerTable.LONG, 8, rows);
+            file.set(OffHeapPlayerTable.LONG, 16, nameBytes);
+
+            long rankOffset = OffHeapPlayerTable.rankOffset(rows);
+            long nameStartsOffset = OffHeapPlayerTable.nameStartsOffset(rows);
+            long namesOffset = OffHeapPlayerTable.namesOffset(rows);
+            long nameEnd = 0;
+
+            br.readLine(); // Skip the header row
+            String line;
+            long row = 0;
+            while (row < rows && (line = br.readLine()) != null) {
+
+                // Skip the same lines the first pass did
+                if (line.indexOf(',') < 0) {
+                    continue;
+                }
+                String[] values = line.split(",");
+
+                // Stats go in csv order: tr, glicko, rd, apm, pps, vs (rank sits between tr and glicko)
+                double[] stats = new double[PlayerTable.STAT_COUNT];
+                try {
+                    for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                        stats[column] = Double.parseDouble(values[CSV_STAT_FIELDS[column]]);
+                    }
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Can't read player " + (row + 1) + " of " + csvPath + ": " + line, e);
+                }
+                for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                    file.set(OffHeapPlayerTable.DOUBLE, OffHeapPlayerTable.statOffset(column, rows) + row * 8, stats[column]);
+                }
+                file.set(ValueLayout.JAVA_BYTE, rankOffset + row, (byte) PlayerTable.getRankCode(values[2]));
+
+                // Username bytes, and where they start
+                byte[] name = values[0].getBytes(StandardCharsets.UTF_8);
+                file.set(OffHeapPlayerTable.LONG, nameStartsOffset + row * 8, nameEnd);
+                MemorySegment.copy(name, 0, file, ValueLayout.JAVA_BYTE, namesOffset + nameEnd, name.length);
+                nameEnd += name.length;
+                row++;
+            }
+            file.set(OffHeapPlayerTable.LONG, nameStartsOffset + rows * 8, nameEnd);
+            file.force();
+        }
+        return rows;
+    }
+
+    /**
+     * Saves some of the players to an Arrow IPC file, which pandas, polars, R and so on can open directly.
+     * 
+     * @param players the table of players
+     * @param rows the rows of the players to save
+     * @param filePath the path of the Arrow file to write
+     * @return true if the file was written
+     */
+    public static boolean savePlayersToArrow(PlayerTable players, int[] rows, String filePath) {
+        try {
+            ArrowWriter.writeFile(players, rows, Path.of(filePath));
+            System.out.println("Wrote " + rows.length + " players to " + filePath);
+            return true;
+        } catch (IOException e) {
+            // Handle any I/O errors
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Loads a CSV file straight into a CompactPlayerTable. The stats are parsed into plain double columns and
+     * encoded once the whole file has been read (a column's decimals can't be picked until every value has
+     * been seen), so no Player objects are ever made.
+     * 
+     * @param filePath the path to the CSV file, with the same columns as loadPlayersFromCsv
+     * @return the players read before any error, in compact columns
+     */
+    public static CompactPlayerTable loadCompactFromCsv(String filePath) {
+        double[][] columns = new double[PlayerTable.STAT_COUNT][1024];
+        byte[] ranks = new byte[1024];
+        List<String> usernames = new ArrayList<>();
+
+        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
+            br.readLine(); // Skip the header row
+            String line;
+            while ((line = br.readLine()) != null) {
+
+                // Skip blank lines
+                if (line.indexOf(',') < 0) {
+                    continue;
+                }
+                String[] values = line.split(",");
+
+                // Double the arrays when they're full
+                int row = usernames.size();
+                if (row == ranks.length) {
+                    for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                        columns[column] = Arrays.copyOf(columns[column], row * 2);
+                    }
+                    ranks = Arrays.copyOf(ranks, row * 2);
+                }
+
+                // Parse the whole row before storing any of it, so a bad row isn't half added
+                double[] stats = new double[PlayerTable.STAT_COUNT];
+                for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                    stats[column] = Double.parseDouble(values[CSV_STAT_FIELDS[column]]);
+                }
+                for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                    columns[column][row] = stats[column];
+                }
+                ranks[row] = (byte) PlayerTable.getRankCode(values[2]);
+                usernames.add(values[0]);
+            }
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // Handle any I/O or parsing errors
+            e.printStackTrace();
+        }
+
+        int rows = usernames.size();
+        return CompactPlayerTable.encode(columns, rows, Arrays.copyOf(ranks, rows), usernames.toArray(new String[0]));
+    }
+
     /**
      * Loads players from a given CSV file and returns a list of Player objects.
      * The CSV file should have a specific structure with columns such as username, TR, rank, Glicko, RD, APM, PPS, and VS.
@@ -39,6 +297,11 @@ public class DataManager {
                     continue;
                 }
 
+                // Skip blank lines (like the one at the end of some files)
+                if (line.indexOf(',') < 0) {
+                    continue;
+                }
+
                 // Split the line by commas
                 String[] values = line.split(","); 
 
@@ -56,7 +319,7 @@ public class DataManager {
                 Player player = new Player(username, tr, rank, glicko, rd, apm, pps, vs);
                 players.add(player);
             }
-        } catch (IOException | NumberFormatException e) {
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
             // Handle any I/O or parsing errors
             e.printStackTrace(); 
         }
@@ -0,0 +1,65 @@
+package cpt;
+
+import java.util.List;
+
+/**
+ * HeapPlayerTable
+ * A PlayerTable over the normal list of Player objects from DataManager.loadPlayersFromCsv.
+ * This is what small csv files use, since the Player objects are needed for the scatter chart anyway.
+ *
+ * @author R. Shi
+ */
+public class HeapPlayerTable implements PlayerTable {
+
+    private final List<Player> players;
+
+    /**
+     * HeapPlayerTable Constructor
+     *
+     * @param players the list of players, in csv order
+     */
+    public HeapPlayerTable(List<Player> players) {
+        this.players = players;
+    }
+
+    @Override
+    public int size() {
+        return players.size();
+    }
+
+    @Override
+    public double getStat(int row, int column) {
+        Player player = players.get(row);
+        switch (column) {
+            case TR:
+                return player.getTr();
+            case GLICKO:
+                return player.getGlicko();
+            case RD:
+                return player.getRd();
+            case APM:
+                return player.getApm();
+            case PPS:
+                return player.getPps();
+            case VS:
+                return player.getVs();
+            default:
+                throw new IllegalArgumentException("Invalid column: " + column);
+        }
+    }
+
+    @Override
+    public String getRank(int row) {
+        return players.get(row).getRank();
+    }
+
+    @Override
+    public String getUsername(int row) {
+        return players.get(row).getUsername();
+    }
+
+    @Override
+    public Player getPlayer(int row) {
+        return players.get(row);
+    }
+}
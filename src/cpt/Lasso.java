@@ -0,0 +1,174 @@
+package cpt;
+
+/**
+ * Lasso
+ * A selection shape (a box or a freehand loop) drawn on the zoom chart, in the chart's unit square coordinates.
+ *
+ * Testing a million points against a polygon with hundreds of corners one by one would be way too slow, so the
+ * unit square is split into a 256x256 grid first (the same cells as level 8 of the tile pyramid). Every cell the
+ * outline passes through is an EDGE cell, and every other cell is either completely INSIDE or completely OUTSIDE,
+ * which only takes one test per run of cells in a grid row to find out. Points in INSIDE and OUTSIDE cells are
+ * decided by looking up their cell, so only points in EDGE cells need a real point-in-polygon test. That test
+ * only looks at the edges that cross the point's grid row instead of all of them.
+ *
+ * @author R. Shi
+ */
+public final class Lasso {
+
+    // The grid is GRID x GRID cells over the unit square
+    public static final int GRID_LEVEL = 8;
+    private static final int GRID = 1 << GRID_LEVEL;
+
+    // What a cell can be
+    public static final byte OUTSIDE = 0;
+    public static final byte INSIDE = 1;
+    public static final byte EDGE = 2;
+
+    // Corners of the outline, it closes back from the last corner to the first
+    private final float[] us;
+    private final float[] vs;
+    private final int count;
+
+    // Cells indexed by their Morton code, so a point's cell comes straight from the top bits of its tile pyramid code
+    private final byte[] cells = new byte[GRID * GRID];
+
+    // The edges (by index of their first corner) that overlap each grid row, rowEdges[rowStart[r]] to
+    // rowEdges[rowStart[r + 1] - 1] are row r's
+    private final int[] rowStart = new int[GRID + 1];
+    private final int[] rowEdges;
+
+    /**
+     * Lasso Constructor
+     * Builds the grid for an outline. Needs at least 3 corners to select anything.
+     *
+     * @param us The u (left to right, 0 to 1) of each corner.
+     * @param vs The v (top to bottom, 0 to 1) of each corner.
+     * @param count How many corners there are.
+     */
+    public Lasso(float[] us, float[] vs, int count) {
+        this.us = us;
+        this.vs = vs;
+        this.count = count;
+
+        // Bucket the edges by the grid rows they overlap
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            int r0 = cellOf(Math.min(vs[i], vs[j]));
+            int r1 = cellOf(Math.max(vs[i], vs[j]));
+            for (int r = r0; r <= r1; r++) {
+                rowStart[r + 1]++;
+            }
+        }
+        for (int r = 0; r < GRID; r++) {
+            rowStart[r + 1] += rowStart[r];
+        }
+        rowEdges = new int[rowStart[GRID]];
+        int[] filled = new int[GRID];
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            int r0 = cellOf(Math.min(vs[i], vs[j]));
+            int r1 = cellOf(Math.max(vs[i], vs[j]));
+            for (int r = r0; r <= r1; r++) {
+                rowEdges[rowStart[r] + filled[r]++] = i;
+                markEdge(i, j, r);
+            }
+        }
+
+        // Every run of cells between EDGE cells is all in or all out, so one test at the first cell's centre
+        // decides the whole run
+        for (int r = 0; r < GRID; r++) {
+            int c = 0;
+            while (c < GRID) {
+                if (cells[TilePyramid.interleave(c, r)] == EDGE) {
+                    c++;
+                    continue;
+                }
+                byte state = contains((c + 0.5f) / GRID, (r + 0.5f) / GRID) ? INSIDE : OUTSIDE;
+                while (c < GRID && cells[TilePyramid.interleave(c, r)] != EDGE) {
+                    cells[TilePyramid.interleave(c, r)] = state;
+                    c++;
+                }
+            }
+        }
+    }
+
+    /**
+     * box
+     * A rectangular selection between two opposite corners.
+     *
+     * @param u0 The u of one corner.
+     * @param v0 The v of one corner.
+     * @param u1 The u of the opposite corner.
+     * @param v1 The v of the opposite corner.
+     * @return The box as a 4 corner lasso.
+     */
+    public static Lasso box(float u0, float v0, float u1, float v1) {
+        return new Lasso(new float[] {u0, u1, u1, u0}, new float[] {v0, v0, v1, v1}, 4);
+    }
+
+    /**
+     * Marks the cells of grid row r that the edge from corner i to corner j passes through.
+     */
+    private void markEdge(int i, int j, int r) {
+
+        // The row's band of v, the outside rows stretch forever since points past the edge are clamped into them
+        float bandTop = r == 0 ? Float.NEGATIVE_INFINITY : (float) r / GRID;
+        float bandBottom = r == GRID - 1 ? Float.POSITIVE_INFINITY : (float) (r + 1) / GRID;
+
+        // Part of the edge inside the band, as a range of u
+        float uA = us[i];
+        float uB = us[j];
+        float dv = vs[j] - vs[i];
+        if (dv != 0) {
+            float t0 = Math.max(0, Math.min(1, (bandTop - vs[i]) / dv));
+            float t1 = Math.max(0, Math.min(1, (bandBottom - vs[i]) / dv));
+            uA = us[i] + (us[j] - us[i]) * t0;
+            uB = us[i] + (us[j] - us[i]) * t1;
+        }
+        int c0 = cellOf(Math.min(uA, uB));
+        int c1 = cellOf(Math.max(uA, uB));
+        for (int c = c0; c <= c1; c++) {
+            cells[TilePyramid.interleave(c, r)] = EDGE;
+        }
+    }
+
+    /**
+     * getCell
+     *
+     * @param mortonCell The Morton code of a grid cell (a tile pyramid code shifted down to GRID_LEVEL).
+     * @return INSIDE, OUTSIDE or EDGE.
+     */
+    public byte getCell(int mortonCell) {
+        return cells[mortonCell];
+    }
+
+    /**
+     * contains
+     * Point-in-polygon test by counting how many edges a line going right from the point crosses (odd is inside).
+     * Only edges that overlap the point's grid row can cross that line, so those are the only ones checked.
+     *
+     * @param u The point's u.
+     * @param v The point's v.
+     * @return Whether the point is inside the outline.
+     */
+    public boolean contains(float u, float v) {
+        int r = cellOf(v);
+        boolean inside = false;
+        for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+            int i = rowEdges[k];
+            int j = i + 1 == count ? 0 : i + 1;
+            if ((vs[i] > v) != (vs[j] > v)
+                    && u < (us[j] - us[i]) * (v - vs[i]) / (vs[j] - vs[i]) + us[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Grid row or column of a coordinate, anything off the unit square goes in the nearest outside cell.
+     */
+    private static int cellOf(float coordinate) {
+        return Math.max(0, Math.min(GRID - 1, (int) Math.floor(coordinate * GRID)));
+    }
+}
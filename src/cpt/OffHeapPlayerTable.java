@@ -0,0 +1,158 @@
+package cpt;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * OffHeapPlayerTable
+ * A PlayerTable that reads a memory-mapped snapshot file instead of keeping Player objects on the heap.
+ * Nothing is copied when the file is opened, the operating system pages the columns in as they're read, and
+ * the garbage collector only ever sees this one object no matter how many millions of players there are.
+ *
+ * The snapshot is stored column by column, all numbers little-endian:
+ * <pre>
+ *   header       "TLSNAP01", row count (long), username byte count (long), unused (long)
+ *   stats        6 columns of row count doubles (TR, Glicko, RD, APM, PPS, VS)
+ *   ranks        one byte per row, an index into PlayerTable.RANKS, padded to a multiple of 8
+ *   name starts  row count + 1 longs, where each username starts in the name bytes
+ *   names        every username in UTF-8, one after the other
+ * </pre>
+ * DataManager.convertCsvToSnapshot writes these files.
+ *
+ * @author R. Shi
+ */
+public class OffHeapPlayerTable implements PlayerTable {
+
+    // "TLSNAP01" read as a little-endian long
+    static final long MAGIC = 0x313050414E534C54L;
+    static final long HEADER_BYTES = 32;
+
+    static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    // Rank tier index to chart rank bucket, so the hot loops don't compare strings (ArrowPlayerTable uses it too)
+    static final byte[] BUCKETS = new byte[RANKS.length];
+    static {
+        for (int i = 0; i < RANKS.length; i++) {
+            BUCKETS[i] = (byte) ChartManager.getRankIndex(RANKS[i]);
+        }
+    }
+
+    private final int rows;
+    private final MemorySegment[] stats = new MemorySegment[STAT_COUNT];
+    private final MemorySegment ranks;
+    private final MemorySegment nameStarts;
+    private final MemorySegment names;
+
+    private OffHeapPlayerTable(MemorySegment file) throws IOException {
+        if (file.byteSize() < HEADER_BYTES || file.get(LONG, 0) != MAGIC) {
+            throw new IOException("Not a player snapshot file");
+        }
+        long rowCount = file.get(LONG, 8);
+        long nameBytes = file.get(LONG, 16);
+        if (rowCount > Integer.MAX_VALUE || file.byteSize() < fileSize(rowCount, nameBytes)) {
+            throw new IOException("Player snapshot file is truncated or corrupt");
+        }
+        this.rows = (int) rowCount;
+
+        // Slices are just views of the mapped file, nothing is copied
+        for (int column = 0; column < STAT_COUNT; column++) {
+            stats[column] = file.asSlice(statOffset(column, rows), rows * 8L);
+        }
+        ranks = file.asSlice(rankOffset(rows), rows);
+        nameStarts = file.asSlice(nameStartsOffset(rows), (rows + 1) * 8L);
+        names = file.asSlice(namesOffset(rows), nameBytes);
+    }
+
+    /**
+     * open
+     * Memory-maps a snapshot file. The mapping is released by the garbage collector once the table is no
+     * longer used. Worker threads can keep reading it while the data is being reloaded, since
+     * DataManager.convertCsvToSnapshot never writes into an existing snapshot: it writes a new file and renames
+     * it over the old one, and the old mapping keeps the old file. (Don't overwrite a snapshot in place while it's
+     * mapped, that can crash the JVM.)
+     *
+     * @param path the snapshot file
+     * @return a table over the file
+     * @throws IOException if the file can't be read or isn't a snapshot
+     */
+    public static OffHeapPlayerTable open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+            return new OffHeapPlayerTable(file);
+        }
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public double getStat(int row, int column) {
+        return stats[column].getAtIndex(DOUBLE, row);
+    }
+
+    @Override
+    public void fillStat(int column, double[] out) {
+        MemorySegment.copy(stats[column], DOUBLE, 0, out, 0, rows);
+    }
+
+    @Override
+    public String getRank(int row) {
+        return RANKS[ranks.get(ValueLayout.JAVA_BYTE, row)];
+    }
+
+    @Override
+    public int getRankBucket(int row) {
+        return BUCKETS[ranks.get(ValueLayout.JAVA_BYTE, row)];
+    }
+
+    @Override
+    public String getUsername(int row) {
+        long start = nameStarts.getAtIndex(LONG, row);
+        long end = nameStarts.getAtIndex(LONG, row + 1);
+        byte[] bytes = names.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * getStatColumn
+     * The raw off-heap memory of one stat column, row count little-endian doubles.
+     *
+     * @param column the stat column (e.g., PlayerTable.TR)
+     * @return a read-only view of the column
+     */
+    public MemorySegment getStatColumn(int column) {
+        return stats[column].asReadOnly();
+    }
+
+    // Where each part of the file starts, shared with the writer in DataManager
+
+    static long statOffset(int column, long rows) {
+        return HEADER_BYTES + column * rows * 8;
+    }
+
+    static long rankOffset(long rows) {
+        return statOffset(STAT_COUNT, rows);
+    }
+
+    static long nameStartsOffset(long rows) {
+        return rankOffset(rows) + (rows + 7) / 8 * 8;
+    }
+
+    static long namesOffset(long rows) {
+        return nameStartsOffset(rows) + (rows + 1) * 8;
+    }
+
+    static long fileSize(long rows, long nameBytes) {
+        return namesOffset(rows) + nameBytes;
+    }
+}
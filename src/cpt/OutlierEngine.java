@@ -0,0 +1,476 @@
+package cpt;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * OutlierEngine
+ * Finds players whose APM, PPS and VS are way off from what's normal for their rank, like a smurf sitting in
+ * a low rank. For each of the nine rank buckets it fits a centre and covariance of (APM, PPS, VS), then scores
+ * each player with their Mahalanobis distance from their bucket's centre (how many "standard deviations" away
+ * they are, taking into account that e.g. APM and VS go up together).
+ *
+ * The fit is robust: it starts from the plain mean and covariance, then repeatedly refits using only the players
+ * that are inside the 97.5% ellipse of the previous fit, so the outliers themselves don't drag the fit around.
+ * Every fit and scoring step is one parallel pass over the stat columns.
+ *
+ * Players missing one of the three stats (NaN, e.g. a null in an Arrow file) can't be placed, so they're left
+ * out of the fits and aren't scored at all (getUnscoredCount says how many). Otherwise one NaN would make its
+ * whole bucket's fit NaN, and nobody in that rank could be flagged.
+ *
+ * After the data is reloaded, only the players whose stats or rank changed are rescored, unless enough of a
+ * bucket changed that its fit has to be redone. Players are matched to their old scores by username, since the
+ * csv is sorted by TR and a refresh moves most players to a different row.
+ *
+ * @author R. Shi
+ */
+public class OutlierEngine {
+
+    // The stats the fit uses
+    private static final int[] COLUMNS = {PlayerTable.APM, PlayerTable.PPS, PlayerTable.VS};
+    private static final int DIMENSIONS = COLUMNS.length;
+    private static final int BUCKETS = 9;
+
+    // Chi-square (3 degrees of freedom) 97.5% quantile, players further than this don't count towards the fit
+    private static final double TRIM_CUTOFF = 9.348;
+
+    // Trimming the tails makes the covariance too small, this scales it back: 0.975 / P(chi-square(5) <= 9.348)
+    private static final double TRIM_CORRECTION = 1.0785;
+
+    // Chi-square (3 degrees of freedom) 99.9% quantile, players further than this are flagged
+    private static final double FLAG_CUTOFF = 16.266;
+
+    // How many times the fit is redone without the far away players
+    private static final int ITERATIONS = 5;
+
+    // Buckets with fewer players than this aren't fitted (the covariance would be meaningless)
+    private static final int MIN_BUCKET_SIZE = 20;
+
+    // If more than this fraction of a bucket changed, the bucket is refitted instead of just rescoring the changes
+    private static final double REFIT_FRACTION = 0.01;
+
+    // Usernames that show up more than once can't be matched, so they're always rescored
+    private static final int DUPLICATE = -1;
+
+    // State from the last scoring, used to only redo what changed
+    private PlayerTable table;
+    private double[] values;
+    private byte[] buckets;
+    private int[][] bucketRows;
+    private Fit[] fits;
+    private double[] distances;
+    private Map<String, Integer> rowsByName;
+
+    // How many rows the last score() worked out a distance for
+    private int rescored;
+
+    // How many ranked players were left out for missing a stat
+    private int unscored;
+
+    /**
+     * score
+     * Fits every rank bucket and scores every player. If players were scored before (i.e. the data was just
+     * refreshed), only the new and changed players are rescored.
+     *
+     * @param players the table of players to score
+     * @return the flagged players, most suspicious first
+     */
+    public synchronized List<Outlier> score(PlayerTable players) {
+        if (table == null) {
+            scoreAll(players);
+        } else {
+            scoreChanges(players);
+        }
+        table = players;
+
+        // Remember who's in which row for next time
+        rowsByName = new HashMap<>(players.size() * 2);
+        for (int row = 0; row < players.size(); row++) {
+            rowsByName.merge(players.getUsername(row), row, (first, second) -> DUPLICATE);
+        }
+        return getOutliers();
+    }
+
+    /**
+     * Fits and scores everything from scratch.
+     */
+    private void scoreAll(PlayerTable players) {
+        int rows = players.size();
+        values = new double[rows * DIMENSIONS];
+        buckets = new byte[rows];
+        distances = new double[rows];
+
+        // Copy the three columns we need and each player's bucket, in parallel
+        IntStream.range(0, rows).parallel().forEach(row -> readRow(players, row));
+        buildBucketRows();
+
+        fits = new Fit[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            fits[bucket] = fitBucket(bucketRows[bucket]);
+        }
+        IntStream.range(0, rows).parallel().forEach(this::scoreRow);
+        rescored = rows;
+        System.out.println("Scored " + rows + " players for outliers (" + unscored + " missing a stat)");
+    }
+
+    /**
+     * Matches every player to their row from last time by username and rescores only the players that are new or
+     * whose stats or rank changed. A bucket is refitted (and all of it rescored) if a good chunk of it changed,
+     * counting players who joined it, left it or changed inside it.
+     */
+    private void scoreChanges(PlayerTable players) {
+        int rows = players.size();
+        double[] oldValues = values;
+        byte[] oldBuckets = buckets;
+        double[] oldDistances = distances;
+
+        values = new double[rows * DIMENSIONS];
+        buckets = new byte[rows];
+        distances = new double[rows];
+        IntStream.range(0, rows).parallel().forEach(row -> readRow(players, row));
+        buildBucketRows();
+
+        // Compare each player with their old row, unchanged players keep their old distance
+        boolean[] matched = new boolean[oldBuckets.length];
+        int[] changedPerBucket = new int[BUCKETS];
+        int[] changed = new int[rows];
+        int changedCount = 0;
+        for (int row = 0; row < rows; row++) {
+            Integer found = rowsByName.get(players.getUsername(row));
+            int oldRow = found == null ? DUPLICATE : found;
+            if (oldRow != DUPLICATE && !matched[oldRow]) {
+                matched[oldRow] = true;
+                if (sameRow(oldValues, oldBuckets, oldRow, row)) {
+                    distances[row] = oldDistances[oldRow];
+                    continue;
+                }
+
+                // Moving rank changes the old bucket as well as the new one
+                if (oldBuckets[oldRow] >= 0 && oldBuckets[oldRow] != buckets[row]) {
+                    changedPerBucket[oldBuckets[oldRow]]++;
+                }
+            }
+            if (buckets[row] >= 0) {
+                changedPerBucket[buckets[row]]++;
+            }
+            changed[changedCount++] = row;
+        }
+
+        // Players who are gone count against the bucket they were in
+        int removed = 0;
+        for (int oldRow = 0; oldRow < oldBuckets.length; oldRow++) {
+            if (!matched[oldRow]) {
+                removed++;
+                if (oldBuckets[oldRow] >= 0) {
+                    changedPerBucket[oldBuckets[oldRow]]++;
+                }
+            }
+        }
+        if (changedCount == 0 && removed == 0) {
+            rescored = 0;
+            System.out.println("No players changed, outlier scores kept");
+            return;
+        }
+
+        // Refit buckets that changed a lot and rescore all of their rows, otherwise only rescore the changed rows
+        boolean[] refitted = new boolean[BUCKETS];
+        int touched = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (changedPerBucket[bucket] > bucketRows[bucket].length * REFIT_FRACTION) {
+                refitted[bucket] = true;
+                fits[bucket] = fitBucket(bucketRows[bucket]);
+                IntStream.of(bucketRows[bucket]).parallel().forEach(this::scoreRow);
+                touched += bucketRows[bucket].length;
+            }
+        }
+        for (int i = 0; i < changedCount; i++) {
+            int row = changed[i];
+            if (buckets[row] < 0 || !refitted[buckets[row]]) {
+                scoreRow(row);
+                touched++;
+            }
+        }
+        rescored = touched;
+        System.out.println(changedCount + " players changed and " + removed + " left, rescored " + touched
+                + " rows for outliers");
+    }
+
+    /**
+     * Copies one player's stats and bucket into the engine's arrays.
+     */
+    private void readRow(PlayerTable players, int row) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            values[row * DIMENSIONS + d] = players.getStat(row, COLUMNS[d]);
+        }
+        buckets[row] = (byte) players.getRankBucket(row);
+    }
+
+    /**
+     * Whether a player's old row has the same bucket and stats as their new row.
+     */
+    private boolean sameRow(double[] oldValues, byte[] oldBuckets, int oldRow, int row) {
+        if (oldBuckets[oldRow] != buckets[row]) {
+            return false;
+        }
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (Double.compare(oldValues[oldRow * DIMENSIONS + d], values[row * DIMENSIONS + d]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether all three of a row's stats are real numbers.
+     */
+    private boolean isComplete(int row) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (!Double.isFinite(values[row * DIMENSIONS + d])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lists the rows of each bucket, so refitting a bucket doesn't have to look at the other buckets' rows.
+     * Rows missing a stat aren't in any bucket's list.
+     */
+    private void buildBucketRows() {
+        int[] counts = new int[BUCKETS];
+        unscored = 0;
+        for (int row = 0; row < buckets.length; row++) {
+            int bucket = buckets[row];
+            if (bucket < 0) {
+                continue;
+            }
+            if (isComplete(row)) {
+                counts[bucket]++;
+            } else {
+                unscored++;
+            }
+        }
+        bucketRows = new int[BUCKETS][];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            bucketRows[bucket] = new int[counts[bucket]];
+            counts[bucket] = 0;
+        }
+        for (int row = 0; row < buckets.length; row++) {
+            int bucket = buckets[row];
+            if (bucket >= 0 && isComplete(row)) {
+                bucketRows[bucket][counts[bucket]++] = row;
+            }
+        }
+    }
+
+    /**
+     * Fits one bucket: plain mean and covariance first, then refit on only the players inside the
+     * trimming ellipse a few times.
+     */
+    private Fit fitBucket(int[] rows) {
+        if (rows.length < MIN_BUCKET_SIZE) {
+            return null;
+        }
+        Fit fit = null;
+        for (int iteration = 0; iteration <= ITERATIONS; iteration++) {
+            Fit previous = fit;
+            Moments moments = IntStream.of(rows).parallel().collect(Moments::new, (m, row) -> {
+                if (previous == null || previous.distanceSquared(values, row) <= TRIM_CUTOFF) {
+                    m.add(values, row);
+                }
+            }, Moments::combine);
+            if (moments.count < MIN_BUCKET_SIZE) {
+                break;
+            }
+            fit = moments.toFit(previous == null ? 1 : TRIM_CORRECTION);
+        }
+        return fit;
+    }
+
+    private void scoreRow(int row) {
+        int bucket = buckets[row];
+        Fit fit = bucket >= 0 ? fits[bucket] : null;
+        if (!isComplete(row)) {
+            distances[row] = Double.NaN;
+        } else {
+            distances[row] = fit == null ? 0 : Math.sqrt(fit.distanceSquared(values, row));
+        }
+    }
+
+    /**
+     * @return how many players the last call to score had to rescore
+     */
+    synchronized int getRescoredCount() {
+        return rescored;
+    }
+
+    /**
+     * getUnscoredCount
+     *
+     * @return how many ranked players the last call to score couldn't score because they're missing a stat
+     */
+    public synchronized int getUnscoredCount() {
+        return unscored;
+    }
+
+    /**
+     * @return every flagged player, furthest from their bucket's centre first
+     */
+    private List<Outlier> getOutliers() {
+        double cutoff = Math.sqrt(FLAG_CUTOFF);
+        List<Outlier> outliers = new ArrayList<>();
+        for (int row = 0; row < distances.length; row++) {
+            if (distances[row] > cutoff) {
+                outliers.add(new Outlier(row, table.getUsername(row), table.getRank(row), distances[row],
+                        values[row * DIMENSIONS], values[row * DIMENSIONS + 1], values[row * DIMENSIONS + 2]));
+            }
+        }
+        outliers.sort(Comparator.comparingDouble(Outlier::getScore).reversed());
+        return outliers;
+    }
+
+    /**
+     * Running totals for a mean and covariance. The parallel pass gives each thread its own and adds them up.
+     */
+    private static final class Moments {
+        private long count;
+        private final double[] sum = new double[DIMENSIONS];
+        private final double[] products = new double[DIMENSIONS * DIMENSIONS];
+
+        void add(double[] values, int row) {
+            count++;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                double vi = values[row * DIMENSIONS + i];
+                sum[i] += vi;
+                for (int j = 0; j < DIMENSIONS; j++) {
+                    products[i * DIMENSIONS + j] += vi * values[row * DIMENSIONS + j];
+                }
+            }
+        }
+
+        void combine(Moments other) {
+            count += other.count;
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += other.sum[i];
+            }
+            for (int i = 0; i < products.length; i++) {
+                products[i] += other.products[i];
+            }
+        }
+
+        Fit toFit(double correction) {
+            double[] centre = new double[DIMENSIONS];
+            for (int i = 0; i < DIMENSIONS; i++) {
+                centre[i] = sum[i] / count;
+            }
+            double[] covariance = new double[DIMENSIONS * DIMENSIONS];
+            for (int i = 0; i < DIMENSIONS; i++) {
+                for (int j = 0; j < DIMENSIONS; j++) {
+                    covariance[i * DIMENSIONS + j] =
+                            correction * (products[i * DIMENSIONS + j] / count - centre[i] * centre[j]);
+                }
+            }
+            return new Fit(centre, invert(covariance));
+        }
+
+        /**
+         * Inverts a 3x3 matrix with cofactors, with a tiny bit added to the diagonal in case it's singular
+         * (e.g. every player in the bucket has the same PPS).
+         */
+        private static double[] invert(double[] m) {
+            double ridge = 1e-9 * (m[0] + m[4] + m[8]) + 1e-12;
+            double a = m[0] + ridge, b = m[1], c = m[2];
+            double d = m[3], e = m[4] + ridge, f = m[5];
+            double g = m[6], h = m[7], k = m[8] + ridge;
+            double det = a * (e * k - f * h) - b * (d * k - f * g) + c * (d * h - e * g);
+            return new double[] {
+                (e * k - f * h) / det, (c * h - b * k) / det, (b * f - c * e) / det,
+                (f * g - d * k) / det, (a * k - c * g) / det, (c * d - a * f) / det,
+                (d * h - e * g) / det, (b * g - a * h) / det, (a * e - b * d) / det
+            };
+        }
+    }
+
+    /**
+     * A bucket's centre and inverse covariance.
+     */
+    private static final class Fit {
+        private final double[] centre;
+        private final double[] inverse;
+
+        Fit(double[] centre, double[] inverse) {
+            this.centre = centre;
+            this.inverse = inverse;
+        }
+
+        /**
+         * Squared Mahalanobis distance of a row from the centre.
+         */
+        double distanceSquared(double[] values, int row) {
+            double total = 0;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                double di = values[row * DIMENSIONS + i] - centre[i];
+                for (int j = 0; j < DIMENSIONS; j++) {
+                    total += di * inverse[i * DIMENSIONS + j] * (values[row * DIMENSIONS + j] - centre[j]);
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Outlier
+     * One flagged player, as shown in the outlier list.
+     */
+    public static final class Outlier {
+        private final int row;
+        private final String username;
+        private final String rank;
+        private final double score;
+        private final double apm;
+        private final double pps;
+        private final double vs;
+
+        Outlier(int row, String username, String rank, double score, double apm, double pps, double vs) {
+            this.row = row;
+            this.username = username;
+            this.rank = rank;
+            this.score = score;
+            this.apm = apm;
+            this.pps = pps;
+            this.vs = vs;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getRank() {
+            return rank;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public double getApm() {
+            return apm;
+        }
+
+        public double getPps() {
+            return pps;
+        }
+
+        public double getVs() {
+            return vs;
+        }
+    }
+}
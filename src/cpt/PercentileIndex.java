@@ -0,0 +1,289 @@
+package cpt;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+/**
+ * PercentileIndex
+ * Where each player stands in each stat, e.g. "top 3% in PPS". For every stat column it keeps the values in
+ * sorted order and the rows in that same order (a sorted permutation, so position 0 is the lowest value).
+ * With those, a value's percentile and the value at a percentile are both one binary search.
+ *
+ * Nothing is sorted when the index is made. A column is sorted the first time something asks about it, so
+ * only the stats that are actually charted (or summarized) cost anything: 12 bytes a player each to keep, and
+ * about 28 bytes a player while it's being built. Building a column goes over every player, so the first
+ * question about a column should come from a worker thread (the zoom chart's projection and the selection
+ * summary already are). Each column is copied into a double array and sorted with Arrays.parallelSort, so
+ * nothing gets boxed, then the rows are placed by binary searching their value in the sorted copy.
+ *
+ * Percentiles are "mid-rank": the percent of players with a lower value, plus half of the players with the
+ * same value, so everyone tied gets the same percentile.
+ *
+ * @author R. Shi
+ */
+public class PercentileIndex {
+
+    // Added to an attribute name for its percentile axis (e.g., "PPS %ile")
+    public static final String SUFFIX = " %ile";
+
+    private final PlayerTable players;
+    private final Column[] columns = new Column[PlayerTable.STAT_COUNT];
+
+    /**
+     * PercentileIndex Constructor
+     * Makes an index over a table. Doesn't sort anything yet, so it's fine to call from the JavaFX thread.
+     *
+     * @param players the table of players
+     */
+    public PercentileIndex(PlayerTable players) {
+        this.players = players;
+        for (int column = 0; column < columns.length; column++) {
+            columns[column] = new Column();
+        }
+    }
+
+    /**
+     * The sorted values and rows of one stat. sorted is written last, so once it isn't null the order is
+     * there too.
+     */
+    private static final class Column {
+        private volatile double[] sorted;
+        private int[] order;
+    }
+
+    /**
+     * Gets a column, sorting it first if nothing has asked about it yet. Two threads asking at once only
+     * sort it once.
+     */
+    private Column column(int column) {
+        Column result = columns[column];
+        if (result.sorted == null) {
+            synchronized (result) {
+                if (result.sorted == null) {
+                    buildColumn(column, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * isBuilt
+     *
+     * @param column the stat column (e.g., PlayerTable.PPS)
+     * @return whether the column has been sorted already, so asking about it won't have to
+     */
+    public boolean isBuilt(int column) {
+        return columns[column].sorted != null;
+    }
+
+    /**
+     * buildAsync
+     * Sorts some columns on a worker thread, so they're ready before the JavaFX thread needs them.
+     *
+     * @param columnsToBuild the stat columns (e.g., PlayerTable.PPS)
+     * @return finishes once all of them are built
+     */
+    public CompletableFuture<Void> buildAsync(int... columnsToBuild) {
+        return CompletableFuture.runAsync(() -> {
+            for (int column : columnsToBuild) {
+                column(column);
+            }
+        });
+    }
+
+    private void buildColumn(int column, Column result) {
+        int rows = players.size();
+        double[] values = new double[rows];
+        players.fillStat(column, values);
+        double[] sortedValues = values.clone();
+        Arrays.parallelSort(sortedValues);
+
+        // Where each row's value first shows up in the sorted values
+        int[] positions = new int[rows];
+        IntStream.range(0, rows).parallel().forEach(row -> positions[row] = lowerBound(sortedValues, values[row]));
+
+        // Tied rows take the positions after that one, in csv order
+        int[] ties = new int[rows];
+        int[] rowsInOrder = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            int position = positions[row];
+            rowsInOrder[position + ties[position]++] = row;
+        }
+
+        result.order = rowsInOrder;
+        result.sorted = sortedValues;
+    }
+
+    public PlayerTable getPlayers() {
+        return players;
+    }
+
+    /**
+     * getPercentile
+     * Finds what percentile a value would be in a stat.
+     *
+     * @param column the stat column (e.g., PlayerTable.PPS)
+     * @param value the value to look up, it doesn't have to be one of the players'
+     * @return 0 to 100, higher is better
+     */
+    public double getPercentile(int column, double value) {
+        double[] values = column(column).sorted;
+        if (values.length == 0) {
+            return 0;
+        }
+        int below = lowerBound(values, value);
+        int notAbove = upperBound(values, value);
+        return 100.0 * (below + (notAbove - below) / 2.0) / values.length;
+    }
+
+    /**
+     * getValueAtPercentile
+     * Finds the stat value at a percentile, e.g. the PPS you need to be in the top 10% (percentile 90).
+     *
+     * @param column the stat column (e.g., PlayerTable.PPS)
+     * @param percentile 0 to 100
+     * @return the value of the player at that percentile, NaN if there are no players
+     */
+    public double getValueAtPercentile(int column, double percentile) {
+        double[] values = column(column).sorted;
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        int position = (int) Math.round(percentile / 100 * values.length - 0.5);
+        return values[Math.max(0, Math.min(values.length - 1, position))];
+    }
+
+    /**
+     * getRowAt
+     * Finds who is at a position of a stat's leaderboard.
+     *
+     * @param column the stat column (e.g., PlayerTable.PPS)
+     * @param position 0 for the lowest value up to size() - 1 for the highest
+     * @return the row of the player at that position
+     */
+    public int getRowAt(int column, int position) {
+        return column(column).order[position];
+    }
+
+    /**
+     * getValueAt
+     * Finds the value at a position of a stat's leaderboard, the value of getRowAt's player.
+     *
+     * @param column the stat column (e.g., PlayerTable.PPS)
+     * @param position 0 for the lowest value up to size() - 1 for the highest
+     * @return the value at that position
+     */
+    public double getValueAt(int column, int position) {
+        return column(column).sorted[position];
+    }
+
+    /**
+     * getAxisValue
+     * A player's value on a chart axis, which is either a raw stat or its percentile.
+     *
+     * @param row the row of the player
+     * @param attribute the axis attribute (e.g., "PPS" or "PPS %ile")
+     * @return the stat value, or its percentile for a percentile axis (NaN if the player doesn't have the stat)
+     */
+    public double getAxisValue(int row, String attribute) {
+        int column = getColumn(attribute);
+        double value = players.getStat(row, column);
+        return isPercentile(attribute) && !Double.isNaN(value) ? getPercentile(column, value) : value;
+    }
+
+    /**
+     * fillAxis
+     * Every player's value on a chart axis, in row order. A percentile axis is filled by walking the sorted
+     * permutation once, so it doesn't need a binary search per player.
+     *
+     * @param attribute the axis attribute (e.g., "PPS" or "PPS %ile")
+     * @param out gets the value of each row, at least size() long
+     */
+    public void fillAxis(String attribute, double[] out) {
+        int column = getColumn(attribute);
+        int rows = players.size();
+        if (!isPercentile(attribute)) {
+            players.fillStat(column, out);
+            return;
+        }
+
+        Column sortedColumn = column(column);
+        double[] values = sortedColumn.sorted;
+        int[] rowsInOrder = sortedColumn.order;
+        int start = 0;
+        while (start < rows) {
+            int end = start + 1;
+            while (end < rows && Double.compare(values[end], values[start]) == 0) {
+                end++;
+            }
+            // Missing values sort last, they don't have a percentile
+            double percentile = Double.isNaN(values[start]) ? Double.NaN
+                    : 100.0 * (start + (end - start) / 2.0) / rows;
+            for (int position = start; position < end; position++) {
+                out[rowsInOrder[position]] = percentile;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * @param attribute the axis attribute (e.g., "PPS" or "PPS %ile")
+     * @return whether it's a percentile axis
+     */
+    public static boolean isPercentile(String attribute) {
+        return attribute.endsWith(SUFFIX);
+    }
+
+    /**
+     * @param attribute the axis attribute (e.g., "PPS" or "PPS %ile")
+     * @return the stat it's about, without the percentile suffix (e.g., "PPS")
+     */
+    public static String getBaseAttribute(String attribute) {
+        return isPercentile(attribute) ? attribute.substring(0, attribute.length() - SUFFIX.length()) : attribute;
+    }
+
+    /**
+     * @param attribute the axis attribute (e.g., "PPS" or "PPS %ile")
+     * @return the stat column it's about
+     */
+    public static int getColumn(String attribute) {
+        return PlayerTable.getColumn(getBaseAttribute(attribute));
+    }
+
+    /**
+     * Index of the first value that isn't less than the given one. Uses Double.compare so NaN and -0.0 are
+     * ordered the same way Arrays.parallelSort ordered them.
+     */
+    private static int lowerBound(double[] values, double value) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Double.compare(values[mid], value) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Index of the first value that's greater than the given one.
+     */
+    private static int upperBound(double[] values, double value) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Double.compare(values[mid], value) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
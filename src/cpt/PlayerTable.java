@@ -0,0 +1,128 @@
+package cpt;
+
+/**
+ * PlayerTable
+ * Column-by-column access to the player data, so the charts don't care where the players are actually stored.
+ * Rows are numbered from 0 to size() - 1 in the same order as the csv file. The six stats are columns that are
+ * looked up by number (TR, GLICKO, ...), which is a lot faster than going through the attribute names per point.
+ *
+ * HeapPlayerTable wraps the normal list of Player objects, OffHeapPlayerTable reads a memory-mapped snapshot.
+ *
+ * @author R. Shi
+ */
+public interface PlayerTable {
+
+    // Column numbers of the stats
+    int TR = 0;
+    int GLICKO = 1;
+    int RD = 2;
+    int APM = 3;
+    int PPS = 4;
+    int VS = 5;
+    int STAT_COUNT = 6;
+
+    // Every rank tier, used as a dictionary so a rank can be stored as one byte. "z" is unranked.
+    String[] RANKS = {
+        "d", "d+", "c-", "c", "c+", "b-", "b", "b+", "a-", "a", "a+", "s-", "s", "s+", "ss", "u", "x", "x+", "z"
+    };
+
+    /**
+     * @return the number of players (rows) in the table
+     */
+    int size();
+
+    /**
+     * @param row the row of the player
+     * @param column the stat column (e.g., PlayerTable.TR)
+     * @return the player's value for that stat
+     */
+    double getStat(int row, int column);
+
+    /**
+     * Copies a whole stat column, in row order. Tables that store their columns in one piece override this
+     * with a bulk copy or decode, which is a lot faster than calling getStat for every row.
+     *
+     * @param column the stat column (e.g., PlayerTable.TR)
+     * @param out gets the value of each row, at least size() long
+     */
+    default void fillStat(int column, double[] out) {
+        for (int row = 0; row < size(); row++) {
+            out[row] = getStat(row, column);
+        }
+    }
+
+    /**
+     * @param row the row of the player
+     * @return the player's rank tier (e.g., "a+", "ss")
+     */
+    String getRank(int row);
+
+    /**
+     * @param row the row of the player
+     * @return the player's username
+     */
+    String getUsername(int row);
+
+    /**
+     * Which of the nine chart rank buckets a player is in.
+     *
+     * @param row the row of the player
+     * @return 0 for D rank up to 8 for X+ rank, or -1 if the rank isn't one of them
+     */
+    default int getRankBucket(int row) {
+        return ChartManager.getRankIndex(getRank(row));
+    }
+
+    /**
+     * Gets one row as a Player object. Tables that don't store Player objects make a new one every time,
+     * so this is meant for things like tooltips, not for looping over millions of players.
+     *
+     * @param row the row of the player
+     * @return the player in that row
+     */
+    default Player getPlayer(int row) {
+        return new Player(getUsername(row), getStat(row, TR), getRank(row), getStat(row, GLICKO),
+                getStat(row, RD), getStat(row, APM), getStat(row, PPS), getStat(row, VS));
+    }
+
+    /**
+     * Finds the column number of an attribute name from the ComboBoxes.
+     *
+     * @param attribute the name of the attribute (e.g., "TR", "APM")
+     * @return the column number of the attribute
+     * @throws IllegalArgumentException if the attribute isn't one of the stats
+     */
+    static int getColumn(String attribute) {
+        switch (attribute.toLowerCase()) {
+            case "tr":
+                return TR;
+            case "glicko":
+                return GLICKO;
+            case "rd":
+                return RD;
+            case "apm":
+                return APM;
+            case "pps":
+                return PPS;
+            case "vs":
+                return VS;
+            default:
+                throw new IllegalArgumentException("Invalid attribute: " + attribute);
+        }
+    }
+
+    /**
+     * Finds a rank tier's position in RANKS.
+     *
+     * @param rank the rank tier (e.g., "a+")
+     * @return its index in RANKS, unknown ranks count as unranked ("z")
+     */
+    static int getRankCode(String rank) {
+        for (int i = 0; i < RANKS.length; i++) {
+            if (RANKS[i].equals(rank)) {
+                return i;
+            }
+        }
+        return RANKS.length - 1;
+    }
+}
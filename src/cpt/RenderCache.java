@@ -0,0 +1,177 @@
+package cpt;
+
+import javafx.scene.chart.XYChart;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * RenderCache
+ * A least-recently-used cache of prepared chart views, so going back to an axis pair we've already looked at
+ * doesn't redo the whole chart. Each view holds whatever has been prepared for it so far: the scatter chart's
+ * series (with their circles and tooltips) and the zoom chart's projection. The views are keyed by the data
+ * version too, and setting a new data version throws away every view of the old data.
+ *
+ * Memory use is estimated from the number of points in each view. Only the JavaFX thread should touch this.
+ *
+ * @author R. Shi
+ */
+public class RenderCache {
+
+    // Rough guess of the memory one scatter chart point takes (Data, Circle and Tooltip)
+    private static final long SCATTER_BYTES_PER_POINT = 2048;
+
+    private final LinkedHashMap<ViewKey, PreparedView> views = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long usedBytes;
+
+    /**
+     * RenderCache Constructor
+     *
+     * @param maxBytes Roughly how much memory (in bytes) the cached views are allowed to use.
+     */
+    public RenderCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * get
+     * Looks up a view and marks it as recently used.
+     *
+     * @param key The view to look up.
+     * @return The prepared view, or null if it isn't cached.
+     */
+    public PreparedView get(ViewKey key) {
+        return views.get(key);
+    }
+
+    /**
+     * put
+     * Adds a view to the cache (or re-measures it if more was prepared for it), then evicts the least recently
+     * used views until it's back under the cap.
+     *
+     * @param key The view being added.
+     * @param view The prepared view.
+     */
+    public void put(ViewKey key, PreparedView view) {
+        PreparedView old = views.put(key, view);
+        if (old != null) {
+            usedBytes -= old.weight;
+        }
+        view.weight = view.estimateBytes();
+        usedBytes += view.weight;
+
+        Iterator<Map.Entry<ViewKey, PreparedView>> eldest = views.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<ViewKey, PreparedView> entry = eldest.next();
+
+            // Never evict the view that was just added
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            usedBytes -= entry.getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * invalidateBefore
+     * Drops every view that was prepared from an older version of the data.
+     *
+     * @param dataVersion The current data version.
+     */
+    public void invalidateBefore(int dataVersion) {
+        Iterator<Map.Entry<ViewKey, PreparedView>> it = views.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ViewKey, PreparedView> entry = it.next();
+            if (entry.getKey().dataVersion < dataVersion) {
+                usedBytes -= entry.getValue().weight;
+                it.remove();
+            }
+        }
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * ViewKey
+     * Identifies one view of the data: the two axes and the data version. Every rank bucket is prepared in
+     * every view, the rank filter only decides which of them are shown.
+     */
+    public static final class ViewKey {
+        private final String xParam;
+        private final String yParam;
+        private final int dataVersion;
+
+        public ViewKey(String xParam, String yParam, int dataVersion) {
+            this.xParam = xParam;
+            this.yParam = yParam;
+            this.dataVersion = dataVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ViewKey)) {
+                return false;
+            }
+            ViewKey other = (ViewKey) o;
+            return dataVersion == other.dataVersion
+                    && xParam.equals(other.xParam) && yParam.equals(other.yParam);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(xParam, yParam, dataVersion);
+        }
+    }
+
+    /**
+     * PreparedView
+     * Everything that's been prepared for one view so far. Either part can be null if that chart
+     * hasn't shown this view yet.
+     */
+    public static final class PreparedView {
+        private XYChart.Series<Number, Number>[] series;
+        private TilePyramid pyramid;
+        private long weight;
+
+        public XYChart.Series<Number, Number>[] getSeries() {
+            return series;
+        }
+
+        public void setSeries(XYChart.Series<Number, Number>[] series) {
+            this.series = series;
+        }
+
+        public TilePyramid getPyramid() {
+            return pyramid;
+        }
+
+        public void setPyramid(TilePyramid pyramid) {
+            this.pyramid = pyramid;
+        }
+
+        /**
+         * Rough memory use of this view, the projection is 16 bytes a point and scatter points are a lot more.
+         */
+        private long estimateBytes() {
+            long bytes = 0;
+            if (series != null) {
+                for (XYChart.Series<Number, Number> serie : series) {
+                    bytes += serie.getData().size() * SCATTER_BYTES_PER_POINT;
+                }
+            }
+            if (pyramid != null) {
+                bytes += pyramid.size() * 16L;
+            }
+            return bytes;
+        }
+    }
+}
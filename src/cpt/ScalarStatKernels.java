@@ -0,0 +1,53 @@
+package cpt;
+
+/**
+ * ScalarStatKernels
+ * Plain loop versions of the StatKernels, one value at a time.
+ *
+ * @author R. Shi
+ */
+public class ScalarStatKernels implements StatKernels {
+
+    @Override
+    public void minMaxSum(double[] values, int length, double[] out) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            sum += values[i];
+        }
+        out[0] = min;
+        out[1] = max;
+        out[2] = sum;
+    }
+
+    @Override
+    public void project(double[] values, int length, double offset, double scale, float[] out) {
+        for (int i = 0; i < length; i++) {
+            out[i] = (float) ((values[i] - offset) * scale);
+        }
+    }
+
+    @Override
+    public void mortonBins(float[] u, float[] v, int length, int cells, int[] out) {
+        for (int i = 0; i < length; i++) {
+            int cx = Math.max(0, Math.min((int) (u[i] * cells), cells - 1));
+            int cy = Math.max(0, Math.min((int) (v[i] * cells), cells - 1));
+            out[i] = spread(cx) | (spread(cy) << 1);
+        }
+    }
+
+    /**
+     * Spreads the low 16 bits of a number out so there's a zero between each of them.
+     */
+    static int spread(int n) {
+        n &= 0xFFFF;
+        n = (n | (n << 8)) & 0x00FF00FF;
+        n = (n | (n << 4)) & 0x0F0F0F0F;
+        n = (n | (n << 2)) & 0x33333333;
+        n = (n | (n << 1)) & 0x55555555;
+        return n;
+    }
+}
@@ -0,0 +1,158 @@
+package cpt;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * SelectionSummary
+ * What a group of selected players looks like: how many there are of each rank, and the mean, median, min and
+ * max of every stat, plus where the median sits among all players (its percentile). Used by the selection panel
+ * next to the chart.
+ *
+ * When the PercentileIndex has already sorted a column (it has for the charted axes), the stats are worked out by
+ * walking its sorted order and picking out the selected players, so the selected values come out already sorted
+ * and nothing has to be sorted again, even for a selection of a million players. The other columns aren't sorted
+ * just for this: the selected values are sorted on their own and the median's percentile is counted from the
+ * whole column, which doesn't need any memory per player.
+ *
+ * @author R. Shi
+ */
+public class SelectionSummary {
+
+    private final PlayerTable players;
+    private final int[] rows;
+    private final int[] rankCounts = new int[TilePyramid.LAYERS];
+    private final double[] mean = new double[PlayerTable.STAT_COUNT];
+    private final double[] median = new double[PlayerTable.STAT_COUNT];
+    private final double[] min = new double[PlayerTable.STAT_COUNT];
+    private final double[] max = new double[PlayerTable.STAT_COUNT];
+    private final double[] medianPercentile = new double[PlayerTable.STAT_COUNT];
+
+    private SelectionSummary(PlayerTable players, int[] rows) {
+        this.players = players;
+        this.rows = rows;
+    }
+
+    /**
+     * summarize
+     * Works out the summary of a selection. Goes over every player once per stat (in parallel), so it should be
+     * called from a worker thread.
+     *
+     * @param percentiles The percentile index of the players.
+     * @param rows The rows of the selected players.
+     * @return The summary.
+     */
+    public static SelectionSummary summarize(PercentileIndex percentiles, int[] rows) {
+        PlayerTable players = percentiles.getPlayers();
+        SelectionSummary summary = new SelectionSummary(players, rows);
+        boolean[] selected = new boolean[players.size()];
+        for (int row : rows) {
+            selected[row] = true;
+            int rank = players.getRankBucket(row);
+            if (rank >= 0) {
+                summary.rankCounts[rank]++;
+            }
+        }
+        IntStream.range(0, PlayerTable.STAT_COUNT).parallel()
+                .forEach(column -> summary.summarizeColumn(percentiles, selected, column));
+        return summary;
+    }
+
+    private void summarizeColumn(PercentileIndex percentiles, boolean[] selected, int column) {
+
+        // The selected values, lowest first. Missing values (NaN) sort last, so they're left off the end.
+        double[] values = new double[rows.length];
+        int count = 0;
+        double sum = 0;
+        boolean indexed = percentiles.isBuilt(column);
+        if (indexed) {
+            for (int position = 0; position < selected.length && count < rows.length; position++) {
+                if (!selected[percentiles.getRowAt(column, position)]) {
+                    continue;
+                }
+                double value = percentiles.getValueAt(column, position);
+                if (Double.isNaN(value)) {
+                    break;
+                }
+                values[count++] = value;
+                sum += value;
+            }
+        } else {
+            for (int row : rows) {
+                double value = players.getStat(row, column);
+                if (!Double.isNaN(value)) {
+                    values[count++] = value;
+                    sum += value;
+                }
+            }
+            Arrays.parallelSort(values, 0, count);
+        }
+
+        if (count == 0) {
+            mean[column] = median[column] = min[column] = max[column] = medianPercentile[column] = Double.NaN;
+            return;
+        }
+        mean[column] = sum / count;
+        median[column] = (values[(count - 1) / 2] + values[count / 2]) / 2;
+        min[column] = values[0];
+        max[column] = values[count - 1];
+        medianPercentile[column] = indexed ? percentiles.getPercentile(column, median[column])
+                : countPercentile(column, median[column]);
+    }
+
+    /**
+     * The same mid-rank percentile as PercentileIndex.getPercentile, counted straight from the table.
+     */
+    private double countPercentile(int column, double value) {
+        int below = 0;
+        int equal = 0;
+        int total = players.size();
+        for (int row = 0; row < total; row++) {
+            int compare = Double.compare(players.getStat(row, column), value);
+            if (compare < 0) {
+                below++;
+            } else if (compare == 0) {
+                equal++;
+            }
+        }
+        return 100.0 * (below + equal / 2.0) / total;
+    }
+
+    // Getters
+
+    public PlayerTable getPlayers() {
+        return players;
+    }
+
+    public int[] getRows() {
+        return rows;
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    public int getRankCount(int rank) {
+        return rankCounts[rank];
+    }
+
+    public double getMean(int column) {
+        return mean[column];
+    }
+
+    public double getMedian(int column) {
+        return median[column];
+    }
+
+    public double getMin(int column) {
+        return min[column];
+    }
+
+    public double getMax(int column) {
+        return max[column];
+    }
+
+    public double getMedianPercentile(int column) {
+        return medianPercentile[column];
+    }
+}
@@ -0,0 +1,92 @@
+package cpt;
+
+/**
+ * StatKernels
+ * The tight loops that run over a whole stat column every time the chart is projected: finding the bounds,
+ * mapping values onto the axis, and working out which grid cell each point falls in.
+ * VectorStatKernels does these with SIMD instructions through the Vector API, ScalarStatKernels is the plain
+ * loop version used when the jdk.incubator.vector module isn't available (or when it's turned off with
+ * -Dcpt.scalarKernels=true). Both give the same results, except that sums can differ in the last few bits
+ * since the vector version adds the values up in a different order.
+ *
+ * VectorStatKernels is in its own source folder (src-vector) since it only compiles with
+ * --add-modules jdk.incubator.vector. It's loaded by name, so the rest of the program compiles and runs
+ * without it.
+ *
+ * @author R. Shi
+ */
+public interface StatKernels {
+
+    /**
+     * Finds the smallest value, largest value and total of a column.
+     *
+     * @param values the column
+     * @param length how many values at the start of the array to use
+     * @param out gets {min, max, sum}, min/max are +/- infinity if length is 0
+     */
+    void minMaxSum(double[] values, int length, double[] out);
+
+    /**
+     * Linear axis projection: out[i] = (values[i] - offset) * scale.
+     *
+     * @param values the column
+     * @param length how many values at the start of the array to use
+     * @param offset the value that maps to 0
+     * @param scale how much 1 unit of the value moves on the axis
+     * @param out gets the projected values
+     */
+    void project(double[] values, int length, double offset, double scale, float[] out);
+
+    /**
+     * 2D bin index: cuts the unit square into cells x cells bins and gives the Morton (Z-order) code of the
+     * bin each point is in. Points outside the unit square go in the nearest edge bin.
+     *
+     * @param u the x coordinates, 0 to 1
+     * @param v the y coordinates, 0 to 1
+     * @param length how many points at the start of the arrays to use
+     * @param cells bins per side, a power of two no bigger than 65536
+     * @param out gets the Morton code of each point's bin
+     */
+    void mortonBins(float[] u, float[] v, int length, int cells, int[] out);
+
+    /**
+     * get
+     * Picks the vector kernels if they were compiled and the Vector API module is loaded, otherwise the scalar ones.
+     *
+     * @return the kernels to use
+     */
+    static StatKernels get() {
+        return Holder.KERNELS;
+    }
+
+    /**
+     * Picked once, the first time get() is called.
+     */
+    final class Holder {
+        private static final StatKernels KERNELS = pick();
+
+        private Holder() {
+        }
+
+        private static StatKernels pick() {
+            StatKernels vector = Boolean.getBoolean("cpt.scalarKernels") ? null : loadVector();
+            return vector != null ? vector : new ScalarStatKernels();
+        }
+
+        /**
+         * Makes a VectorStatKernels without naming it in the code, so this compiles without the module.
+         *
+         * @return the vector kernels, or null if they weren't compiled or the module isn't loaded
+         */
+        static StatKernels loadVector() {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+                return null;
+            }
+            try {
+                return (StatKernels) Class.forName("cpt.VectorStatKernels").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cpt;
+
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * TileCache
+ * A least-recently-used cache of rasterized chart tiles with a cap on how much memory the tiles can take.
+ * When a new tile pushes the total over the cap, the tiles that haven't been drawn for the longest are dropped.
+ * Only the JavaFX thread should touch this, the worker threads hand their tiles over with Platform.runLater.
+ *
+ * @author R. Shi
+ */
+public class TileCache {
+
+    // LinkedHashMap in access order keeps the least recently used tile at the front
+    private final LinkedHashMap<TileKey, Image> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxBytes;
+    private long usedBytes;
+
+    /**
+     * TileCache Constructor
+     *
+     * @param maxBytes The most memory (in bytes) the cached tiles are allowed to use.
+     */
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * get
+     * Looks up a tile and marks it as recently used.
+     *
+     * @param key The tile to look up.
+     * @return The tile's image, or null if it isn't cached.
+     */
+    public Image get(TileKey key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * put
+     * Adds a tile to the cache, then evicts the least recently used tiles until it's back under the cap.
+     *
+     * @param key The tile being added.
+     * @param image The rasterized tile.
+     */
+    public void put(TileKey key, Image image) {
+        Image old = tiles.put(key, image);
+        if (old != null) {
+            usedBytes -= sizeOf(old);
+        }
+        usedBytes += sizeOf(image);
+
+        Iterator<Map.Entry<TileKey, Image>> eldest = tiles.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<TileKey, Image> entry = eldest.next();
+
+            // Never evict the tile that was just added, even if it's bigger than the whole cap
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            usedBytes -= sizeOf(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Memory used by an image, 4 bytes per pixel.
+     */
+    private static long sizeOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    /**
+     * TileKey
+     * Identifies one tile: which axes it was projected on, which rank layer it is, the fingerprint of that
+     * layer's points, and where it is in the pyramid. Reloaded data gets new fingerprints only for the ranks
+     * whose points moved, so tiles of old data are never mixed in but unchanged layers are kept.
+     */
+    public static final class TileKey {
+        private final String xParam;
+        private final String yParam;
+        private final int rank;
+        private final long layerId;
+        private final int level;
+        private final int tx;
+        private final int ty;
+
+        public TileKey(String xParam, String yParam, int rank, long layerId, int level, int tx, int ty) {
+            this.xParam = xParam;
+            this.yParam = yParam;
+            this.rank = rank;
+            this.layerId = layerId;
+            this.level = level;
+            this.tx = tx;
+            this.ty = ty;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getTx() {
+            return tx;
+        }
+
+        public int getTy() {
+            return ty;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) o;
+            return rank == other.rank && layerId == other.layerId
+                    && level == other.level && tx == other.tx && ty == other.ty
+                    && xParam.equals(other.xParam) && yParam.equals(other.yParam);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(xParam, yParam, rank, layerId, level, tx, ty);
+        }
+    }
+}
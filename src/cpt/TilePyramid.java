@@ -0,0 +1,490 @@
+package cpt;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.Arrays;
+
+/**
+ * TilePyramid
+ * Holds the projected points for one X/Y axis pair and rasterizes them into square tiles on demand.
+ * The points are sorted along a Z-order (Morton) curve, which means every tile of every zoom level is one
+ * contiguous run of the sorted arrays, found with two binary searches. This is what makes it a quadtree
+ * without having to build any tree nodes.
+ *
+ * Level 0 is a single tile covering all of the data, level 1 is 2x2 tiles, level 2 is 4x4 tiles, and so on.
+ *
+ * Every rank bucket is its own layer: the rank goes in the top bits of the sort key, so each rank's points
+ * are one run of the arrays (still in Morton order inside it) and its tiles are rasterized on their own.
+ * The chart stacks the layers of the ranks that are shown, so hiding or showing a rank never redraws a point.
+ *
+ * @author R. Shi
+ */
+public class TilePyramid {
+
+    // Width and height of a tile in pixels
+    public static final int TILE_SIZE = 256;
+
+    // Deepest level, the Morton codes are computed on a 4096x4096 grid so they fit in an int
+    public static final int MAX_LEVEL = 12;
+
+    // Radius of a point when it is drawn into a tile, and of the ring around a selected point
+    private static final int POINT_RADIUS = 3;
+    private static final int RING_RADIUS = 5;
+    private static final int RING_ARGB = 0xFF202020;
+
+    // Number of rank layers (the same nine buckets as the chart series), and where the rank goes in a code
+    public static final int LAYERS = 9;
+    static final int RANK_SHIFT = 2 * MAX_LEVEL;
+    static final int MORTON_MASK = (1 << RANK_SHIFT) - 1;
+
+    // The layer drawn on top of the rank layers, with a ring around each selected player
+    public static final int SELECTION_LAYER = LAYERS;
+
+    // Stands in for a tile with nothing in it, so empty tiles are remembered without keeping an image for each
+    public static final WritableImage EMPTY_TILE = new WritableImage(1, 1);
+
+    private final String xParam;
+    private final String yParam;
+    private final int dataVersion;
+
+    // Axis bounds (with a bit of padding so points on the edge aren't cut off)
+    private final double xMin;
+    private final double xMax;
+    private final double yMin;
+    private final double yMax;
+
+    // Points sorted by rank then Morton code (rank << RANK_SHIFT | Morton code), u goes left to right and v goes
+    // top to bottom, both from 0 to 1
+    private final int[] codes;
+    private final float[] u;
+    private final float[] v;
+
+    // Which player (row of the table) each point is
+    private final int[] rows;
+
+    // Fingerprint of each layer's points, the same whenever a rank's points land in exactly the same places
+    private final long[] layerIds;
+
+    private TilePyramid(String xParam, String yParam, int dataVersion,
+            double xMin, double xMax, double yMin, double yMax,
+            int[] codes, float[] u, float[] v, int[] rows) {
+        this.xParam = xParam;
+        this.yParam = yParam;
+        this.dataVersion = dataVersion;
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        this.codes = codes;
+        this.u = u;
+        this.v = v;
+        this.rows = rows;
+        this.layerIds = new long[LAYERS];
+        for (int rank = 0; rank < LAYERS; rank++) {
+            layerIds[rank] = fingerprint(rank);
+        }
+    }
+
+    /**
+     * build
+     * Projects every player with a known rank and both axis values onto the unit square and sorts them into rank layers in Morton
+     * order. The axis bounds cover every rank, so hiding a rank doesn't move the others. This touches the whole dataset, so it should be called from a worker thread, not the JavaFX thread.
+     *
+     * @param players The table of players to project.
+     * @param percentiles The percentile index of the players, for percentile axes.
+     * @param xParam The attribute on the X-axis (e.g., "TR", "APM %ile").
+     * @param yParam The attribute on the Y-axis (e.g., "Glicko", "RD").
+     * @param dataVersion Which version of the data the players are, so tiles of old data are never mixed in.
+     * @return The built pyramid.
+     * @author R. Shi
+     */
+    public static TilePyramid build(PlayerTable players, PercentileIndex percentiles, String xParam, String yParam,
+                                    int dataVersion) {
+        int rows = players.size();
+        double[] xs = new double[rows];
+        double[] ys = new double[rows];
+        percentiles.fillAxis(xParam, xs);
+        percentiles.fillAxis(yParam, ys);
+
+        // First pass, pack the players that are drawn to the front of the axes (the only scalar loop here,
+        // since it has to ask the table for each rank). count never passes row, so it's safe in place.
+        int count = 0;
+        byte[] ranks = new byte[rows];
+        int[] sourceRows = new int[rows];
+        for (int row = 0; row < rows; row++) {
+
+            // Unknown ranks aren't drawn in the normal chart either, and neither are missing values (NaN, e.g.
+            // a null in an Arrow file), which would turn the axis bounds into NaN and every point with them
+            int rank = players.getRankBucket(row);
+            if (rank < 0 || !Double.isFinite(xs[row]) || !Double.isFinite(ys[row])) {
+                continue;
+            }
+            ranks[count] = (byte) rank;
+            sourceRows[count] = row;
+            xs[count] = xs[row];
+            ys[count] = ys[row];
+            count++;
+        }
+
+        // Bounds, with the SIMD kernels when they're available
+        StatKernels kernels = StatKernels.get();
+        double[] xStats = new double[3];
+        double[] yStats = new double[3];
+        kernels.minMaxSum(xs, count, xStats);
+        kernels.minMaxSum(ys, count, yStats);
+        double xMin = xStats[0];
+        double xMax = xStats[1];
+        double yMin = yStats[0];
+        double yMax = yStats[1];
+
+        // Empty or flat data would divide by zero below
+        if (count == 0) {
+            xMin = 0;
+            xMax = 1;
+            yMin = 0;
+            yMax = 1;
+        }
+        double xPad = Math.max(xMax - xMin, 1e-9) * 0.05;
+        double yPad = Math.max(yMax - yMin, 1e-9) * 0.05;
+        xMin -= xPad;
+        xMax += xPad;
+        yMin -= yPad;
+        yMax += yPad;
+
+        // Project onto the unit square, v is flipped so 0 is the top (the biggest y value)
+        float[] us = new float[count];
+        float[] vs = new float[count];
+        kernels.project(xs, count, xMin, 1 / (xMax - xMin), us);
+        kernels.project(ys, count, yMax, -1 / (yMax - yMin), vs);
+
+        // Rank and Morton code of each point at the deepest level, packed with the point's index so one
+        // primitive sort puts everything in order
+        int[] bins = new int[count];
+        kernels.mortonBins(us, vs, count, 1 << MAX_LEVEL, bins);
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) (ranks[i] << RANK_SHIFT | bins[i]) << 32) | i;
+        }
+        Arrays.parallelSort(keys);
+
+        // Lay the arrays out in the sorted order
+        int[] codes = new int[count];
+        float[] u = new float[count];
+        float[] v = new float[count];
+        int[] pointRows = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = (int) keys[i];
+            codes[i] = (int) (keys[i] >>> 32);
+            u[i] = us[index];
+            v[i] = vs[index];
+            pointRows[i] = sourceRows[index];
+        }
+
+        return new TilePyramid(xParam, yParam, dataVersion, xMin, xMax, yMin, yMax, codes, u, v, pointRows);
+    }
+
+    /**
+     * Hashes where a layer's points are. The positions already include the axis bounds, so if the data of a rank
+     * and the axes are the same after a reload, the fingerprint is too and its cached tiles are still good.
+     */
+    private long fingerprint(int rank) {
+        int from = lowerBound((long) rank << RANK_SHIFT);
+        int to = lowerBound((long) (rank + 1) << RANK_SHIFT);
+        long hash = 0xCBF29CE484222325L ^ (to - from);
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ Float.floatToRawIntBits(u[i])) * 0x100000001B3L;
+            hash = (hash ^ Float.floatToRawIntBits(v[i])) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * rasterize
+     * Draws every point of one rank that lands in the given tile into a new image. Points from the neighbouring
+     * tiles are included too, so circles that cross a tile border aren't cut in half. Safe to call from worker
+     * threads.
+     *
+     * @param rank The rank layer to draw (0 is D rank, 8 is X+ rank).
+     * @param level The zoom level of the tile.
+     * @param tx The column of the tile, 0 is the leftmost.
+     * @param ty The row of the tile, 0 is the top.
+     * @return A TILE_SIZE x TILE_SIZE image of the tile, or EMPTY_TILE if the rank has no points near it.
+     * @author R. Shi
+     */
+    public WritableImage rasterize(int rank, int level, int tx, int ty) {
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        if (!drawLayer(pixels, rank, level, tx, ty, null)) {
+            return EMPTY_TILE;
+        }
+        return toImage(pixels);
+    }
+
+    /**
+     * rasterizeSelection
+     * Draws a ring around every selected player of the shown ranks that lands in the given tile. Safe to call
+     * from worker threads.
+     *
+     * @param selected Which rows of the table are selected.
+     * @param filter Bit mask of the rank buckets being shown.
+     * @param level The zoom level of the tile.
+     * @param tx The column of the tile, 0 is the leftmost.
+     * @param ty The row of the tile, 0 is the top.
+     * @return A TILE_SIZE x TILE_SIZE image of the rings, or EMPTY_TILE if nobody selected is near the tile.
+     * @author R. Shi
+     */
+    public WritableImage rasterizeSelection(boolean[] selected, int filter, int level, int tx, int ty) {
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        boolean drawn = false;
+        for (int rank = 0; rank < LAYERS; rank++) {
+            if ((filter & (1 << rank)) != 0) {
+                drawn |= drawLayer(pixels, rank, level, tx, ty, selected);
+            }
+        }
+        return drawn ? toImage(pixels) : EMPTY_TILE;
+    }
+
+    /**
+     * Draws one rank's points near a tile into the pixels, as filled circles or (with a selection) as rings
+     * around just the selected ones. Returns whether anything was drawn.
+     */
+    private boolean drawLayer(int[] pixels, int rank, int level, int tx, int ty, boolean[] selected) {
+        int tiles = 1 << level;
+        double scale = (double) TILE_SIZE * tiles;
+        int argb = ChartManager.getRankArgb(rank);
+        int radius = selected == null ? POINT_RADIUS : RING_RADIUS;
+        long layer = (long) rank << RANK_SHIFT;
+        boolean drawn = false;
+
+        for (int ny = Math.max(0, ty - 1); ny <= Math.min(tiles - 1, ty + 1); ny++) {
+            for (int nx = Math.max(0, tx - 1); nx <= Math.min(tiles - 1, tx + 1); nx++) {
+
+                // Every tile is one run of Morton codes, shifted up to the deepest level
+                int shift = 2 * (MAX_LEVEL - level);
+                long start = layer + ((long) interleave(nx, ny) << shift);
+                long end = layer + ((long) (interleave(nx, ny) + 1) << shift);
+                int from = lowerBound(start);
+                int to = lowerBound(end);
+
+                for (int i = from; i < to; i++) {
+                    if (selected != null && !selected[rows[i]]) {
+                        continue;
+                    }
+                    int px = (int) (u[i] * scale) - tx * TILE_SIZE;
+                    int py = (int) (v[i] * scale) - ty * TILE_SIZE;
+                    if (px < -radius || py < -radius || px >= TILE_SIZE + radius || py >= TILE_SIZE + radius) {
+                        continue;
+                    }
+                    if (selected == null) {
+                        drawPoint(pixels, px, py, argb);
+                    } else {
+                        drawRing(pixels, px, py);
+                    }
+                    drawn = true;
+                }
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Copies finished pixels into an image.
+     */
+    private static WritableImage toImage(int[] pixels) {
+        WritableImage image = new WritableImage(TILE_SIZE, TILE_SIZE);
+        image.getPixelWriter().setPixels(0, 0, TILE_SIZE, TILE_SIZE, PixelFormat.getIntArgbInstance(), pixels, 0, TILE_SIZE);
+        return image;
+    }
+
+    /**
+     * select
+     * Finds every player of the shown ranks inside a lasso. Only the points in the lasso's EDGE cells get a real
+     * point-in-polygon test, the rest are decided by the cell they're in, so this is one quick pass over the
+     * arrays. Safe to call from worker threads.
+     *
+     * @param lasso The selection outline, in this pyramid's unit square.
+     * @param filter Bit mask of the rank buckets being shown.
+     * @param selected Gets set to true for the rows of the selected players, one per row of the table.
+     * @return How many players were selected.
+     * @author R. Shi
+     */
+    public int select(Lasso lasso, int filter, boolean[] selected) {
+        int shift = 2 * (MAX_LEVEL - Lasso.GRID_LEVEL);
+        int count = 0;
+        for (int rank = 0; rank < LAYERS; rank++) {
+            if ((filter & (1 << rank)) == 0) {
+                continue;
+            }
+            int from = lowerBound((long) rank << RANK_SHIFT);
+            int to = lowerBound((long) (rank + 1) << RANK_SHIFT);
+            for (int i = from; i < to; i++) {
+                byte cell = lasso.getCell((codes[i] & MORTON_MASK) >>> shift);
+                if (cell == Lasso.INSIDE || cell == Lasso.EDGE && lasso.contains(u[i], v[i])) {
+                    selected[rows[i]] = true;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Draws a filled circle into the pixel buffer, blending it over whatever is already there.
+     */
+    private static void drawPoint(int[] pixels, int cx, int cy, int argb) {
+        for (int dy = -POINT_RADIUS; dy <= POINT_RADIUS; dy++) {
+            int y = cy + dy;
+            if (y < 0 || y >= TILE_SIZE) {
+                continue;
+            }
+            for (int dx = -POINT_RADIUS; dx <= POINT_RADIUS; dx++) {
+                int x = cx + dx;
+                if (x < 0 || x >= TILE_SIZE || dx * dx + dy * dy > POINT_RADIUS * POINT_RADIUS) {
+                    continue;
+                }
+                pixels[y * TILE_SIZE + x] = blend(pixels[y * TILE_SIZE + x], argb);
+            }
+        }
+    }
+
+    /**
+     * Draws a thin dark ring into the pixel buffer, around where a point is.
+     */
+    private static void drawRing(int[] pixels, int cx, int cy) {
+        int inner = (RING_RADIUS - 1) * (RING_RADIUS - 1);
+        int outer = RING_RADIUS * RING_RADIUS;
+        for (int dy = -RING_RADIUS; dy <= RING_RADIUS; dy++) {
+            int y = cy + dy;
+            if (y < 0 || y >= TILE_SIZE) {
+                continue;
+            }
+            for (int dx = -RING_RADIUS; dx <= RING_RADIUS; dx++) {
+                int x = cx + dx;
+                int distance = dx * dx + dy * dy;
+                if (x < 0 || x >= TILE_SIZE || distance <= inner || distance > outer) {
+                    continue;
+                }
+                pixels[y * TILE_SIZE + x] = RING_ARGB;
+            }
+        }
+    }
+
+    /**
+     * Standard "source over" blending of two non-premultiplied ARGB colours.
+     */
+    static int blend(int dst, int src) {
+        int sa = src >>> 24;
+        int da = dst >>> 24;
+        int outA = sa + da * (255 - sa) / 255;
+        if (outA == 0) {
+            return 0;
+        }
+        int result = outA << 24;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int sc = (src >> shift) & 0xFF;
+            int dc = (dst >> shift) & 0xFF;
+            int c = (sc * sa + dc * da * (255 - sa) / 255) / outA;
+            result |= c << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Index of the first point whose code (rank << RANK_SHIFT | Morton code) is at least the given value.
+     */
+    int lowerBound(long code) {
+        int lo = 0;
+        int hi = codes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (codes[mid] < code) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Interleaves the bits of x and y into a Morton code (x in the even bits, y in the odd bits).
+     */
+    static int interleave(int x, int y) {
+        return ScalarStatKernels.spread(x) | (ScalarStatKernels.spread(y) << 1);
+    }
+
+    /**
+     * tileKey
+     * The cache key of one tile of a rank layer. It only depends on the axes, the layer's fingerprint and where the
+     * tile is, never on which ranks are shown, so hiding and showing a rank finds the same tiles in the cache.
+     *
+     * @param rank The rank layer (0 is D rank, 8 is X+ rank).
+     * @param level The zoom level of the tile.
+     * @param tx The column of the tile, 0 is the leftmost.
+     * @param ty The row of the tile, 0 is the top.
+     * @return The key the tile is cached under.
+     */
+    public TileCache.TileKey tileKey(int rank, int level, int tx, int ty) {
+        return new TileCache.TileKey(xParam, yParam, rank, layerIds[rank], level, tx, ty);
+    }
+
+    // Getters
+
+    public String getXParam() {
+        return xParam;
+    }
+
+    public String getYParam() {
+        return yParam;
+    }
+
+    /**
+     * @param rank The rank layer (0 is D rank, 8 is X+ rank).
+     * @return The fingerprint of the layer's points, for telling its cached tiles apart.
+     */
+    public long getLayerId(int rank) {
+        return layerIds[rank];
+    }
+
+    public int getDataVersion() {
+        return dataVersion;
+    }
+
+    public double getXMin() {
+        return xMin;
+    }
+
+    public double getXMax() {
+        return xMax;
+    }
+
+    public double getYMin() {
+        return yMin;
+    }
+
+    public double getYMax() {
+        return yMax;
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    // Package-private getters of single points, for the tests
+
+    int getCode(int index) {
+        return codes[index];
+    }
+
+    float getU(int index) {
+        return u[index];
+    }
+
+    float getV(int index) {
+        return v[index];
+    }
+
+    int getRow(int index) {
+        return rows[index];
+    }
+}
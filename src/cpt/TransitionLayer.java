@@ -0,0 +1,312 @@
+package cpt;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * TransitionLayer
+ * Animates the points of the zoom chart sliding from where they were on the old axes to where they are on the
+ * new ones, so it's easy to follow a group of players when switching e.g. from TR vs APM to TR vs VS.
+ *
+ * Every player's start and end position is worked out once on a worker thread (prepare), and sorted so points
+ * that end up close together are close together in memory. After that, each frame just mixes the two positions
+ * and writes the points straight into an int pixel buffer, which is copied into one WritableImage and drawn. The
+ * pixel buffer and the image are made once and reused, so a frame doesn't create any objects and a million points
+ * still animate smoothly without any help from the GPU.
+ *
+ * The positions take 17 bytes a player (four floats and the rank) and are only kept while a transition plays.
+ * They're let go as soon as it ends, so switching axes once doesn't leave a copy of the whole dataset behind.
+ *
+ * @author R. Shi
+ */
+public class TransitionLayer {
+
+    // How long a transition takes, in nanoseconds (AnimationTimer time)
+    private static final long DURATION = 600_000_000L;
+
+    // Rank colours already blended over the white background, so points can be written without blending
+    private static final int[] OPAQUE_ARGB = new int[9];
+
+    static {
+        for (int rank = 0; rank < OPAQUE_ARGB.length; rank++) {
+            OPAQUE_ARGB[rank] = TilePyramid.blend(0xFFFFFFFF, ChartManager.getRankArgb(rank));
+        }
+    }
+
+    private final Runnable onFrame;
+    private final AnimationTimer timer;
+
+    // Positions for the transition that's playing, null when nothing is (FX thread only)
+    private Buffers active;
+
+    private boolean running;
+    private long startTime = -1;
+    private float progress;
+
+    // The frame, remade only when the plot changes size
+    private int width;
+    private int height;
+    private int[] pixels;
+    private IntBuffer pixelBuffer;
+    private WritableImage image;
+    private PixelWriter writer;
+
+    /**
+     * TransitionLayer Constructor
+     *
+     * @param onFrame Called on the FX thread every frame while a transition plays, and once more when it ends.
+     */
+    public TransitionLayer(Runnable onFrame) {
+        this.onFrame = onFrame;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                tick(now);
+            }
+        };
+    }
+
+    /**
+     * prepare
+     * Works out where every player is on the old axes and on the new ones. This touches the whole dataset, so it
+     * should be called from a worker thread. The positions are in each pyramid's unit square, the same
+     * coordinates the tiles use. The sort keys and the stat column it needs along the way are only kept until it
+     * returns.
+     *
+     * @param percentiles The percentile index of the players being drawn.
+     * @param from The pyramid of the axes being left.
+     * @param to The pyramid of the axes being switched to.
+     * @return The positions, to hand to start on the FX thread.
+     */
+    public static Buffers prepare(PercentileIndex percentiles, TilePyramid from, TilePyramid to) {
+        PlayerTable players = percentiles.getPlayers();
+        int rows = players.size();
+        Buffers buffers = new Buffers(rows);
+
+        double[] scratch = new double[rows];
+        project(percentiles, from, scratch, buffers.fromU, buffers.fromV);
+        project(percentiles, to, scratch, buffers.toU, buffers.toV);
+
+        // Put the points in Morton order of where they end up. Points next to each other in the arrays then
+        // land next to each other in the pixel buffer, which makes each frame a lot friendlier to the CPU cache
+        // than going through the rows in csv order.
+        int[] bins = new int[rows];
+        StatKernels.get().mortonBins(buffers.toU, buffers.toV, rows, 1 << TilePyramid.MAX_LEVEL, bins);
+        long[] keys = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            keys[row] = ((long) bins[row] << 32) | row;
+        }
+        Arrays.parallelSort(keys);
+
+        // Each array is copied into sorted order, and the unsorted one is reused for the next copy
+        float[][] columns = {buffers.fromU, buffers.fromV, buffers.toU, buffers.toV};
+        float[] spare = new float[rows];
+        for (int c = 0; c < columns.length; c++) {
+            float[] sorted = spare;
+            for (int i = 0; i < rows; i++) {
+                sorted[i] = columns[c][(int) keys[i]];
+            }
+            spare = columns[c];
+            columns[c] = sorted;
+        }
+        buffers.fromU = columns[0];
+        buffers.fromV = columns[1];
+        buffers.toU = columns[2];
+        buffers.toV = columns[3];
+
+        // The rank filter is checked while drawing, so showing or hiding a rank mid-transition works too
+        for (int i = 0; i < rows; i++) {
+            buffers.ranks[i] = (byte) players.getRankBucket((int) keys[i]);
+        }
+        return buffers;
+    }
+
+    /**
+     * Projects every row onto a pyramid's unit square, the same way TilePyramid.build does.
+     */
+    private static void project(PercentileIndex percentiles, TilePyramid pyramid, double[] scratch, float[] u,
+                                float[] v) {
+        int rows = percentiles.getPlayers().size();
+        StatKernels kernels = StatKernels.get();
+
+        percentiles.fillAxis(pyramid.getXParam(), scratch);
+        kernels.project(scratch, rows, pyramid.getXMin(), 1 / (pyramid.getXMax() - pyramid.getXMin()), u);
+        percentiles.fillAxis(pyramid.getYParam(), scratch);
+        kernels.project(scratch, rows, pyramid.getYMax(), -1 / (pyramid.getYMax() - pyramid.getYMin()), v);
+    }
+
+    /**
+     * start
+     * Plays a transition with positions from prepare, replacing any transition that's already playing.
+     * Must be called on the FX thread.
+     *
+     * @param buffers The positions to animate between.
+     */
+    public void start(Buffers buffers) {
+        active = buffers;
+        running = true;
+        startTime = -1;
+        progress = 0;
+        timer.start();
+    }
+
+    /**
+     * stop
+     * Ends the transition that's playing (if any) without waiting for it to finish, e.g. when the data is reloaded.
+     */
+    public void stop() {
+        if (running) {
+            running = false;
+            timer.stop();
+        }
+        active = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Moves the animation along, then asks the chart to draw the frame.
+     */
+    private void tick(long now) {
+        if (startTime < 0) {
+            startTime = now;
+        }
+        float t = Math.min(1f, (now - startTime) / (float) DURATION);
+
+        progress = ease(t);
+        if (t >= 1) {
+            running = false;
+            timer.stop();
+
+            // The chart draws the tiles from here on, so the positions aren't needed any more
+            active = null;
+        }
+        onFrame.run();
+    }
+
+    /**
+     * Smoothstep, so the points speed up and slow down instead of jerking. Starts at 0 and ends at exactly 1.
+     */
+    static float ease(float t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    /**
+     * draw
+     * Draws the current frame of the transition into the plot area.
+     *
+     * @param gc The canvas to draw on.
+     * @param left The x of the plot's top left corner on the canvas.
+     * @param top The y of the plot's top left corner on the canvas.
+     * @param plotWidth The plot's width in pixels.
+     * @param plotHeight The plot's height in pixels.
+     * @param viewX The unit square x at the left of the plot.
+     * @param viewY The unit square y at the top of the plot.
+     * @param zoom Pixels per unit.
+     * @param filter Bit mask of the rank buckets to draw.
+     */
+    public void draw(GraphicsContext gc, double left, double top, double plotWidth, double plotHeight,
+                     double viewX, double viewY, double zoom, int filter) {
+        int w = (int) plotWidth;
+        int h = (int) plotHeight;
+        if (active == null || w <= 0 || h <= 0) {
+            return;
+        }
+        if (image == null || w != width || h != height) {
+            width = w;
+            height = h;
+            pixels = new int[w * h];
+            pixelBuffer = IntBuffer.wrap(pixels);
+            image = new WritableImage(w, h);
+            writer = image.getPixelWriter();
+        }
+
+        Arrays.fill(pixels, 0);
+        Buffers b = active;
+        float t = progress;
+        float s = 1 - t;
+        float vx = (float) viewX;
+        float vy = (float) viewY;
+        float z = (float) zoom;
+        for (int i = 0; i < b.ranks.length; i++) {
+            int rank = b.ranks[i];
+            if (rank < 0 || (filter & (1 << rank)) == 0) {
+                continue;
+            }
+            // Mixed this way round so the last frame lands exactly where the tiles draw the point
+            float u = b.fromU[i] * s + b.toU[i] * t;
+            float v = b.fromV[i] * s + b.toV[i] * t;
+            int x = (int) ((u - vx) * z);
+            int y = (int) ((v - vy) * z);
+            if (x < 1 || y < 1 || x >= w - 1 || y >= h - 1) {
+                continue;
+            }
+
+            // 3x3 square, the corners of the tiles' circles don't show at this speed anyway
+            int argb = OPAQUE_ARGB[rank];
+            int index = (y - 1) * w + x - 1;
+            pixels[index] = argb;
+            pixels[index + 1] = argb;
+            pixels[index + 2] = argb;
+            index += w;
+            pixels[index] = argb;
+            pixels[index + 1] = argb;
+            pixels[index + 2] = argb;
+            index += w;
+            pixels[index] = argb;
+            pixels[index + 1] = argb;
+            pixels[index + 2] = argb;
+        }
+
+        pixelBuffer.rewind();
+        writer.setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixelBuffer, w);
+        gc.drawImage(image, left, top);
+    }
+
+    /**
+     * Buffers
+     * Every player's start and end position and bucket, in Morton order of the end positions.
+     */
+    public static final class Buffers {
+        private float[] fromU;
+        private float[] fromV;
+        private float[] toU;
+        private float[] toV;
+        private final byte[] ranks;
+
+        private Buffers(int count) {
+            fromU = new float[count];
+            fromV = new float[count];
+            toU = new float[count];
+            toV = new float[count];
+            ranks = new byte[count];
+        }
+
+        int size() {
+            return ranks.length;
+        }
+
+        int getRank(int index) {
+            return ranks[index];
+        }
+
+        /**
+         * Where a point is at progress t of the transition (0 is the old axes, 1 the new ones), same as draw.
+         */
+        float getU(int index, float t) {
+            return fromU[index] * (1 - t) + toU[index] * t;
+        }
+
+        float getV(int index, float t) {
+            return fromV[index] * (1 - t) + toV[index] * t;
+        }
+    }
+}
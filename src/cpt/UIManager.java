@@ -1,14 +1,29 @@
 package cpt;
 
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.geometry.Pos;
+import javafx.scene.Cursor;
+import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.chart.ScatterChart;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
+import javafx.stage.Stage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * UIManager is responsible for creating and managing the user interface components for the chart and axis selectors.
@@ -18,10 +33,18 @@ import javafx.scene.shape.Circle;
  */
 public class UIManager {
 
+    // Most usernames the selection panel lists, the counts and stats still cover the whole selection
+    private static final int SELECTION_LIST_LIMIT = 10000;
+
     // These keep track of the x/y parameters from the dropdowns, so they can properly update the chart
     private String xParam;
     private String yParam;
 
+    // Names of the rank buckets, D rank first (the same order as the chart series)
+    private static final String[] RANK_NAMES = {
+        "D rank", "C rank", "B rank", "A rank", "S rank", "SS rank", "U rank", "X rank", "X+ rank"
+    };
+
     /**
      * Constructor to initialize the UIManager with x and y axis parameters.
      * 
@@ -35,11 +58,14 @@ public class UIManager {
 
     /**
      * Creates a legend VBox to display player ranks and their corresponding colors.
-     * The ranks are displayed with colored circles representing each rank.
+     * The ranks are displayed with colored circles representing each rank. Clicking a rank shows or hides it
+     * on the chart, and hidden ranks are faded out in the legend.
      * 
+     * @param chartManager the ChartManager instance that has the rank filter
+     * @param scatterChart the ScatterChart to be updated
      * @return a VBox containing the legend of player ranks
      */
-    public VBox createLegend() {
+    public VBox createLegend(ChartManager chartManager, ScatterChart<Number, Number> scatterChart) {
 
         // Create VBox for legend
         VBox legend = new VBox(10);
@@ -49,7 +75,9 @@ public class UIManager {
         // Title
         Label legendTitle = new Label("Player Ranks");
         legendTitle.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
-        legend.getChildren().add(legendTitle);
+        Label legendHint = new Label("Click a rank to show/hide it");
+        legendHint.setStyle("-fx-font-size: 11px; -fx-text-fill: gray;");
+        legend.getChildren().addAll(legendTitle, legendHint);
 
         // Define ranks and colors
         String[] ranks = {
@@ -81,6 +109,16 @@ public class UIManager {
             // Add this Hbox to the legend Vbox
             legendItem.getChildren().addAll(colorCircle, rankLabel);
             legend.getChildren().add(legendItem);
+
+            // The legend is X+ first but the filter bits are D rank first
+            int rankBit = 1 << (ranks.length - 1 - i);
+            legendItem.setCursor(Cursor.HAND);
+            legendItem.setOpacity((chartManager.getFilter() & rankBit) != 0 ? 1 : 0.35);
+            legendItem.setOnMouseClicked(event -> {
+                int filter = chartManager.getFilter() ^ rankBit;
+                chartManager.setFilter(filter, scatterChart);
+                legendItem.setOpacity((filter & rankBit) != 0 ? 1 : 0.35);
+            });
         }
 
         return legend;
@@ -107,6 +145,12 @@ public class UIManager {
         // Create ComboBox with axis options
         ComboBox<String> axisComboBox = new ComboBox<>();
         axisComboBox.getItems().addAll("TR", "APM", "PPS", "Glicko", "RD", "VS");
+
+        // The same stats as percentiles (where the player stands out of everyone), which spreads out the
+        // crowded low end of the chart
+        for (String stat : new String[] {"TR", "APM", "PPS", "Glicko", "RD", "VS"}) {
+            axisComboBox.getItems().add(stat + PercentileIndex.SUFFIX);
+        }
         axisComboBox.setValue(defaultValue);
 
         // Set action to update description and chart when ComboBox value changes
@@ -134,6 +178,295 @@ public class UIManager {
         return axisSelector;
     }
 
+    /**
+     * Creates a CheckBox that swaps the scatter chart for the zoomable chart and back.
+     * The chart is always the first child of the chart container, so that's the one that gets replaced.
+     * 
+     * @param chartManager the ChartManager instance that keeps both charts up to date
+     * @param chartContainer the HBox holding the chart and the legend
+     * @param scatterChart the normal ScatterChart
+     * @param zoomChart the zoomable chart
+     * @return a CheckBox that toggles zoom mode
+     */
+    public CheckBox createZoomToggle(ChartManager chartManager, HBox chartContainer, ScatterChart<Number, Number> scatterChart, ZoomChart zoomChart) {
+
+        CheckBox zoomToggle = new CheckBox("Zoomable chart (scroll to zoom, drag to pan, double click to reset)");
+        zoomToggle.setStyle("-fx-padding: 10px;");
+
+        // Big datasets start out in zoom mode, and can't leave it since the scatter chart would need a node for
+        // every player
+        if (chartManager.isZoomMode()) {
+            zoomToggle.setSelected(true);
+            chartContainer.getChildren().set(0, zoomChart);
+            HBox.setHgrow(zoomChart, Priority.ALWAYS);
+        }
+        zoomToggle.setDisable(!chartManager.canShowScatter());
+
+        zoomToggle.setOnAction(event -> {
+            Node chart = zoomToggle.isSelected() ? zoomChart : scatterChart;
+            chartContainer.getChildren().set(0, chart);
+            HBox.setHgrow(chart, Priority.ALWAYS);
+            chartManager.setZoomMode(zoomToggle.isSelected(), scatterChart);
+        });
+
+        // Reloading can make the data too big for the scatter chart, which switches to the zoom chart
+        chartManager.setZoomModeListener(zoomMode -> {
+            zoomToggle.setDisable(!chartManager.canShowScatter());
+            if (zoomMode && !zoomToggle.isSelected()) {
+                zoomToggle.setSelected(true);
+                chartContainer.getChildren().set(0, zoomChart);
+                HBox.setHgrow(zoomChart, Priority.ALWAYS);
+            }
+        });
+
+        return zoomToggle;
+    }
+
+    /**
+     * Creates a CheckBox that turns the zoom chart's sliding animation between axes on or off.
+     * 
+     * @param chartManager the ChartManager instance that owns the zoom chart
+     * @return a CheckBox that toggles the transitions
+     */
+    public CheckBox createTransitionToggle(ChartManager chartManager) {
+
+        CheckBox transitionToggle = new CheckBox("Animate axis changes (zoom chart)");
+        transitionToggle.setSelected(true);
+        transitionToggle.setOnAction(event -> chartManager.setAnimateTransitions(transitionToggle.isSelected()));
+
+        return transitionToggle;
+    }
+
+    /**
+     * Creates a Button that reads the CSV (or snapshot) file again and redraws the chart with the new data.
+     * Loading can mean converting a huge CSV to a snapshot or encoding every column, so it's done on a
+     * background thread and the button is disabled until it's finished. The chart only switches to the new
+     * data if it loaded, a file that couldn't be read (an empty table) keeps the old data up.
+     * 
+     * @param filePath the path to the file to reload
+     * @param compact whether to store the stats in compact fixed-point columns
+     * @param chartManager the ChartManager instance to give the new players to
+     * @param scatterChart the ScatterChart to be updated
+     * @return a Button that reloads the data
+     */
+    public Button createReloadButton(String filePath, boolean compact, ChartManager chartManager, ScatterChart<Number, Number> scatterChart) {
+
+        Button reloadButton = new Button("Reload data");
+        reloadButton.setOnAction(event -> {
+            reloadButton.setDisable(true);
+            reloadButton.setText("Reloading...");
+            CompletableFuture.supplyAsync(() -> DataManager.loadPlayers(filePath, compact))
+                    .whenComplete((players, error) -> Platform.runLater(() -> {
+                        reloadButton.setDisable(false);
+                        reloadButton.setText("Reload data");
+                        if (error != null) {
+                            error.printStackTrace();
+                        }
+                        if (error != null || players.size() == 0) {
+                            System.out.println("Couldn't reload " + filePath + ", keeping the old data");
+                            return;
+                        }
+                        chartManager.setPlayers(players, scatterChart);
+                    }));
+        });
+
+        return reloadButton;
+    }
+
+    /**
+     * Creates a Button that saves the players the chart is showing (the ranks that pass the filter) to an Arrow
+     * file next to the data file, for opening in other tools (pandas, polars, R, ...).
+     * 
+     * @param filePath the path to the data file, the Arrow file gets the same name ending in -export.arrow (so
+     *                 exporting never writes over an Arrow file that's being read)
+     * @param chartManager the ChartManager instance that has the players and the rank filter
+     * @return a Button that exports the players
+     */
+    public Button createExportButton(String filePath, ChartManager chartManager) {
+
+        String arrowPath = filePath.replaceAll("\\.[^./\\\\]*$", "") + "-export.arrow";
+        Button exportButton = new Button("Export to Arrow");
+        exportButton.setOnAction(event -> DataManager.savePlayersToArrow(chartManager.getPlayers(),
+                chartManager.getVisibleRows(), arrowPath));
+
+        return exportButton;
+    }
+
+    /**
+     * Creates a Button that looks for suspicious players (way off from the normal APM/PPS/VS for their rank).
+     * The flagged players are shown in a sortable table in a separate window and circled in red on the chart.
+     * The table stays up to date when the data is reloaded.
+     * 
+     * @param chartManager the ChartManager instance that finds and highlights the outliers
+     * @param scatterChart the ScatterChart to highlight the outliers on
+     * @return a Button that finds the outliers
+     */
+    public Button createOutlierButton(ChartManager chartManager, ScatterChart<Number, Number> scatterChart) {
+
+        // Table of flagged players, click a column header to sort by it
+        TableView<OutlierEngine.Outlier> outlierTable = new TableView<>();
+        outlierTable.setPlaceholder(new Label("Scoring players..."));
+        TableColumn<OutlierEngine.Outlier, Double> scoreColumn =
+                createOutlierColumn("Distance", outlier -> round(outlier.getScore()));
+        scoreColumn.setSortType(TableColumn.SortType.DESCENDING);
+        outlierTable.getColumns().add(createOutlierColumn("Username", OutlierEngine.Outlier::getUsername));
+        outlierTable.getColumns().add(createOutlierColumn("Rank", OutlierEngine.Outlier::getRank));
+        outlierTable.getColumns().add(scoreColumn);
+        outlierTable.getColumns().add(createOutlierColumn("APM", outlier -> round(outlier.getApm())));
+        outlierTable.getColumns().add(createOutlierColumn("PPS", outlier -> round(outlier.getPps())));
+        outlierTable.getColumns().add(createOutlierColumn("VS", outlier -> round(outlier.getVs())));
+        outlierTable.getSortOrder().add(scoreColumn);
+
+        Label outlierDescription = new Label("Distance is how far a player's APM/PPS/VS is from normal for their rank, "
+                + "in standard deviations. Anything over about 4 is flagged.");
+        outlierDescription.setWrapText(true);
+
+        Stage outlierStage = new Stage();
+        outlierStage.setTitle("Suspicious players");
+        outlierStage.setScene(new Scene(new VBox(10, outlierDescription, outlierTable), 600, 500));
+
+        Button outlierButton = new Button("Find suspicious players");
+        outlierButton.setOnAction(event -> {
+            outlierStage.show();
+            chartManager.findOutliers(scatterChart, outliers -> {
+                outlierTable.getItems().setAll(outliers);
+                outlierTable.sort();
+                int unscored = chartManager.getUnscoredOutlierCount();
+                outlierStage.setTitle("Suspicious players (" + outliers.size() + ")"
+                        + (unscored > 0 ? ", " + unscored + " missing a stat weren't scored" : ""));
+            });
+        });
+
+        return outlierButton;
+    }
+
+    /**
+     * Creates a ComboBox that picks what dragging on the zoom chart does: pan, or select players with a box or a
+     * freehand lasso.
+     * 
+     * @param zoomChart the zoomable chart
+     * @return an HBox with the label and the ComboBox
+     */
+    public HBox createDragModeSelector(ZoomChart zoomChart) {
+
+        ComboBox<String> dragModeComboBox = new ComboBox<>();
+        dragModeComboBox.getItems().addAll("Pan", "Box select", "Lasso select");
+        dragModeComboBox.setValue("Pan");
+
+        // The items are in the same order as ZoomChart's DRAG_ constants
+        dragModeComboBox.setOnAction(event ->
+                zoomChart.setDragMode(dragModeComboBox.getSelectionModel().getSelectedIndex()));
+
+        HBox dragModeSelector = new HBox(5, new Label("Zoom chart drag:"), dragModeComboBox);
+        dragModeSelector.setAlignment(Pos.CENTER_LEFT);
+
+        return dragModeSelector;
+    }
+
+    /**
+     * Creates the panel that shows who is selected on the zoom chart: how many of each rank, a summary of every
+     * stat (with where the median sits out of all players), and their usernames. It updates whenever the
+     * selection changes, including when the axes change (the selection stays the same players).
+     * 
+     * @param chartManager the ChartManager instance that summarizes the selection
+     * @return a VBox with the selection panel
+     */
+    public VBox createSelectionPanel(ChartManager chartManager) {
+
+        Label selectionTitle = new Label("Selected players");
+        selectionTitle.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
+        Label selectionHint = new Label("In the zoom chart, set drag to box or lasso select and drag around some "
+                + "players. Right click to clear.");
+        selectionHint.setWrapText(true);
+        selectionHint.setStyle("-fx-font-size: 11px; -fx-text-fill: gray;");
+        Label countLabel = new Label("Nobody selected");
+        Label rankCounts = new Label();
+
+        // Stat summary grid, one row per stat
+        String[] stats = {"TR", "Glicko", "RD", "APM", "PPS", "VS"};
+        String[] headers = {"", "Mean", "Median", "Min", "Max", "Median %ile"};
+        GridPane statGrid = new GridPane();
+        statGrid.setHgap(10);
+        statGrid.setVgap(2);
+        for (int i = 0; i < headers.length; i++) {
+            Label header = new Label(headers[i]);
+            header.setStyle("-fx-font-weight: bold;");
+            statGrid.add(header, i, 0);
+        }
+        Label[][] statCells = new Label[stats.length][headers.length - 1];
+        for (int stat = 0; stat < stats.length; stat++) {
+            statGrid.add(new Label(stats[stat]), 0, stat + 1);
+            for (int i = 0; i < statCells[stat].length; i++) {
+                statCells[stat][i] = new Label("-");
+                statGrid.add(statCells[stat][i], i + 1, stat + 1);
+            }
+        }
+
+        ListView<String> usernameList = new ListView<>();
+        VBox.setVgrow(usernameList, Priority.ALWAYS);
+
+        chartManager.setSelectionListener(summary -> {
+            String listed = summary.size() > SELECTION_LIST_LIMIT ? " (listing the first " + SELECTION_LIST_LIMIT + ")" : "";
+            countLabel.setText(summary.size() == 0 ? "Nobody selected" : summary.size() + " players selected" + listed);
+
+            // Counts of the ranks that are in the selection, best rank first like the legend
+            StringBuilder counts = new StringBuilder();
+            for (int rank = TilePyramid.LAYERS - 1; rank >= 0; rank--) {
+                if (summary.getRankCount(rank) > 0) {
+                    counts.append(RANK_NAMES[rank]).append(": ").append(summary.getRankCount(rank)).append("\n");
+                }
+            }
+            rankCounts.setText(counts.toString().trim());
+
+            // The stat columns are in the same order as PlayerTable's column numbers
+            for (int column = 0; column < stats.length; column++) {
+                statCells[column][0].setText(formatStat(summary.getMean(column)));
+                statCells[column][1].setText(formatStat(summary.getMedian(column)));
+                statCells[column][2].setText(formatStat(summary.getMin(column)));
+                statCells[column][3].setText(formatStat(summary.getMax(column)));
+                statCells[column][4].setText(formatStat(summary.getMedianPercentile(column)));
+            }
+
+            int[] rows = summary.getRows();
+            PlayerTable players = summary.getPlayers();
+            String[] usernames = new String[Math.min(rows.length, SELECTION_LIST_LIMIT)];
+            for (int i = 0; i < usernames.length; i++) {
+                usernames[i] = players.getUsername(rows[i]) + " (" + players.getRank(rows[i]) + ")";
+            }
+            usernameList.getItems().setAll(usernames);
+        });
+
+        VBox selectionPanel = new VBox(10, selectionTitle, selectionHint, countLabel, rankCounts, statGrid, usernameList);
+        selectionPanel.setStyle("-fx-padding: 10px;");
+        selectionPanel.setPrefWidth(380);
+        selectionPanel.setMinWidth(380);
+
+        return selectionPanel;
+    }
+
+    /**
+     * Formats a summary stat for the selection panel, "-" if there weren't any values.
+     */
+    private static String formatStat(double value) {
+        return Double.isNaN(value) ? "-" : String.valueOf(round(value));
+    }
+
+    /**
+     * Creates a column of the outlier table that shows one value of each outlier.
+     */
+    private static <T> TableColumn<OutlierEngine.Outlier, T> createOutlierColumn(String name, Function<OutlierEngine.Outlier, T> value) {
+        TableColumn<OutlierEngine.Outlier, T> column = new TableColumn<>(name);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+
+    /**
+     * Rounds to 2 decimals for display.
+     */
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
     /**
      * Merges two VBox containers (xAxisBox and yAxisBox) into a single HBox.
      * This allows the x and y axis selectors to be displayed side by side.
@@ -166,6 +499,13 @@ public class UIManager {
      */
     public static String getDescription(String attribute) {
 
+        // Percentile axes get the stat's description, with what the percentile means in front
+        if (PercentileIndex.isPercentile(attribute)) {
+            String stat = PercentileIndex.getBaseAttribute(attribute);
+            return "Percentile of " + stat + ": the percent of players with a lower " + stat + ", so 90 means top 10%. "
+                    + getDescription(stat);
+        }
+
         // This is for dynamically updating the description of the axis
         switch (attribute) {
             case "TR":
@@ -0,0 +1,777 @@
+package cpt;
+
+import javafx.application.Platform;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * ZoomChart
+ * A zoomable and pannable version of the scatter chart. Instead of one JavaFX node per player, the points are
+ * drawn into 256x256 image tiles from a TilePyramid, and the chart just draws whichever tiles are on screen.
+ * Tiles are rasterized on worker threads and kept in a TileCache, so scrolling and dragging never wait on
+ * the whole dataset: if a tile isn't ready yet, a blurry piece of a zoomed out tile is drawn in its place.
+ *
+ * Each rank bucket has its own layer of tiles, and the tiles of the ranks that are shown are stacked on top
+ * of each other (D rank at the bottom). Hiding or showing a rank just changes which layers get drawn.
+ *
+ * Scroll to zoom, drag to pan, double click to reset the view. In box or lasso mode, dragging selects the
+ * players inside the shape instead (right click to clear). The selection is kept as a list of players, so it
+ * stays the same players when the axes change, and it's drawn as one more layer of tiles on top.
+ *
+ * @author R. Shi
+ */
+public final class ZoomChart extends Pane {
+
+    // Bit mask with every rank bucket turned on
+    public static final int ALL_RANKS = (1 << 9) - 1;
+
+    // What dragging does: move the view around, or draw a box or a freehand lasso to select players
+    public static final int DRAG_PAN = 0;
+    public static final int DRAG_BOX = 1;
+    public static final int DRAG_LASSO = 2;
+
+    // A lasso only gets a new corner once the mouse has moved this many pixels, so it doesn't get thousands of them
+    private static final double LASSO_STEP = 3;
+
+    // Space around the plot for the title and axis labels
+    private static final double LEFT = 70;
+    private static final double RIGHT = 20;
+    private static final double TOP = 40;
+    private static final double BOTTOM = 50;
+
+    // Made once instead of every frame
+    private static final Font TITLE_FONT = Font.font(16);
+
+    // Shared between all zoom charts, daemon threads so they don't keep the app open after the window closes
+    private static final ExecutorService WORKERS = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), task -> {
+                Thread thread = new Thread(task, "tile-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private PlayerTable players;
+    private PercentileIndex percentiles;
+    private int dataVersion;
+    private final TileCache tileCache;
+    private final RenderCache renderCache;
+    private final Canvas canvas = new Canvas();
+
+    // Current axes and rank filter
+    private String xParam;
+    private String yParam;
+    private int filter = ALL_RANKS;
+
+    // The pyramid for the current axes, null while it's still being built
+    private TilePyramid pyramid;
+
+    // Bumped every time the axes change, so an old pyramid that finishes late gets thrown away
+    private int buildGeneration;
+
+    // Tiles that have been handed to a worker (FX thread only) and tiles that are currently on screen (read by workers)
+    private final Set<TileCache.TileKey> pending = new HashSet<>();
+    private volatile Set<TileCache.TileKey> wanted = Set.of();
+    private boolean redrawQueued;
+
+    // View: (viewX, viewY) is the point of the unit square at the top left of the plot, zoom is pixels per unit
+    private double viewX;
+    private double viewY;
+    private double zoom;
+    private boolean viewFitted;
+
+    // Rows drawn with a red ring on top of the tiles (the flagged outliers)
+    private int[] highlightRows = new int[0];
+
+    // Slides the points between the old and new axes, drawn instead of the tiles while it plays
+    private final TransitionLayer transition = new TransitionLayer(this::redraw);
+    private boolean animateTransitions = true;
+
+    // Last mouse position while dragging
+    private double dragX;
+    private double dragY;
+
+    // The box (first and last point) or lasso being drawn, in canvas coordinates
+    private int dragMode = DRAG_PAN;
+    private boolean selecting;
+    private double[] pathX = new double[256];
+    private double[] pathY = new double[256];
+    private int pathCount;
+
+    // The selected players as rows of the table, and the same thing as a yes/no per row for the tile workers.
+    // The version goes up with every new selection so its tiles are never mixed up with an older one's.
+    private int[] selectedRows = new int[0];
+    private boolean[] selectedMask;
+    private int selectionVersion;
+    private Consumer<int[]> selectionListener;
+
+    /**
+     * ZoomChart Constructor
+     *
+     * @param players The table of players to draw.
+     * @param percentiles The percentile index of the players, for percentile axes.
+     * @param dataVersion The version of the data the players are.
+     * @param tileCache The cache that rasterized tiles are kept in.
+     * @param renderCache The cache that projections are kept in, shared with the ChartManager.
+     */
+    public ZoomChart(PlayerTable players, PercentileIndex percentiles, int dataVersion, TileCache tileCache,
+                     RenderCache renderCache) {
+        this.players = players;
+        this.percentiles = percentiles;
+        this.dataVersion = dataVersion;
+        this.tileCache = tileCache;
+        this.renderCache = renderCache;
+        getChildren().add(canvas);
+        setMinSize(0, 0);
+        setPrefSize(800, 600);
+
+        // Scroll to zoom around the mouse pointer
+        setOnScroll(event -> {
+            double factor = Math.pow(1.1, event.getDeltaY() / 40);
+            zoomAround(event.getX(), event.getY(), factor);
+            event.consume();
+        });
+
+        // Drag to pan, or to draw a selection
+        setOnMousePressed(event -> {
+            dragX = event.getX();
+            dragY = event.getY();
+            if (event.getButton() == MouseButton.PRIMARY && dragMode != DRAG_PAN && pyramid != null && viewFitted) {
+                selecting = true;
+                pathCount = 0;
+                addPathPoint(event.getX(), event.getY());
+            }
+        });
+        setOnMouseDragged(event -> {
+            if (selecting) {
+
+                // A box only needs where the drag started and where it is now
+                if (dragMode == DRAG_BOX) {
+                    pathCount = 1;
+                    addPathPoint(event.getX(), event.getY());
+                } else if (Math.hypot(event.getX() - pathX[pathCount - 1], event.getY() - pathY[pathCount - 1])
+                        >= LASSO_STEP) {
+                    addPathPoint(event.getX(), event.getY());
+                }
+                redraw();
+                return;
+            }
+            viewX -= (event.getX() - dragX) / zoom;
+            viewY -= (event.getY() - dragY) / zoom;
+            dragX = event.getX();
+            dragY = event.getY();
+            redraw();
+        });
+        setOnMouseReleased(event -> {
+            if (selecting) {
+                selecting = false;
+                finishSelection();
+                redraw();
+            }
+        });
+
+        // Double click to go back to the whole dataset, right click to clear the selection
+        setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                fitView();
+                redraw();
+            } else if (event.getButton() == MouseButton.SECONDARY && selectedRows.length > 0) {
+                setSelection(new int[0]);
+            }
+        });
+    }
+
+    /**
+     * setAxes
+     * Switches the chart to a new pair of attributes. The projection runs on a worker thread, and the chart is
+     * redrawn once it's ready. Projections and tiles from the old axes stay cached, so switching back is instant.
+     *
+     * @param xParam The new X-axis attribute (e.g., "TR", "APM").
+     * @param yParam The new Y-axis attribute (e.g., "Glicko", "RD").
+     */
+    public void setAxes(String xParam, String yParam) {
+        if (xParam.equals(this.xParam) && yParam.equals(this.yParam)) {
+            return;
+        }
+        this.xParam = xParam;
+        this.yParam = yParam;
+        rebuildPyramid();
+    }
+
+    /**
+     * setFilter
+     * Only draws the rank buckets whose bit is set in the mask (bit 0 is D rank, bit 8 is X+ rank).
+     * Every layer stays projected and cached, so this only redraws with a different set of tiles.
+     *
+     * @param filter The bit mask of rank buckets to draw.
+     */
+    public void setFilter(int filter) {
+        if (this.filter == filter) {
+            return;
+        }
+        this.filter = filter;
+        redraw();
+    }
+
+    /**
+     * setHighlight
+     * Draws a red ring around each of the given players, on top of the tiles.
+     *
+     * @param rows The rows of the players to highlight.
+     */
+    public void setHighlight(int[] rows) {
+        highlightRows = rows;
+        redraw();
+    }
+
+    /**
+     * setDragMode
+     * Picks what dragging the mouse does.
+     *
+     * @param dragMode DRAG_PAN, DRAG_BOX or DRAG_LASSO.
+     */
+    public void setDragMode(int dragMode) {
+        this.dragMode = dragMode;
+    }
+
+    /**
+     * setSelectionListener
+     * Gets told every time the selection changes (including when it's cleared), on the JavaFX thread.
+     *
+     * @param selectionListener Gets the rows of the selected players, in csv order.
+     */
+    public void setSelectionListener(Consumer<int[]> selectionListener) {
+        this.selectionListener = selectionListener;
+    }
+
+    /**
+     * setSelection
+     * Replaces the selected players, redraws them and tells the listener.
+     *
+     * @param rows The rows of the selected players, in csv order (empty to clear the selection).
+     */
+    public void setSelection(int[] rows) {
+        setSelection(rows, maskOf(rows));
+    }
+
+    private void setSelection(int[] rows, boolean[] mask) {
+        selectedRows = rows;
+        selectedMask = mask;
+        selectionVersion++;
+        redraw();
+        if (selectionListener != null) {
+            selectionListener.accept(rows);
+        }
+    }
+
+    /**
+     * A yes/no per row of whether it's selected, or null for an empty selection.
+     */
+    private boolean[] maskOf(int[] rows) {
+        if (rows.length == 0) {
+            return null;
+        }
+        boolean[] mask = new boolean[players.size()];
+        for (int row : rows) {
+            mask[row] = true;
+        }
+        return mask;
+    }
+
+    /**
+     * Adds a corner to the selection outline being drawn.
+     */
+    private void addPathPoint(double x, double y) {
+        if (pathCount == pathX.length) {
+            pathX = Arrays.copyOf(pathX, pathCount * 2);
+            pathY = Arrays.copyOf(pathY, pathCount * 2);
+        }
+        pathX[pathCount] = x;
+        pathY[pathCount] = y;
+        pathCount++;
+    }
+
+    /**
+     * Turns the finished outline into a Lasso and finds who's inside it on a worker thread. A click without
+     * dragging (too few corners to have an inside) doesn't change the selection.
+     */
+    private void finishSelection() {
+        if (pathCount < (dragMode == DRAG_BOX ? 2 : 3)) {
+            return;
+        }
+
+        // Canvas coordinates to the pyramid's unit square
+        int count = pathCount;
+        float[] us = new float[count];
+        float[] vs = new float[count];
+        for (int i = 0; i < count; i++) {
+            us[i] = (float) (viewX + (pathX[i] - LEFT) / zoom);
+            vs[i] = (float) (viewY + (pathY[i] - TOP) / zoom);
+        }
+        boolean box = dragMode == DRAG_BOX;
+        TilePyramid source = pyramid;
+        int f = filter;
+        int version = dataVersion;
+        int rowCount = players.size();
+        WORKERS.execute(() -> {
+            Lasso lasso = box ? Lasso.box(us[0], vs[0], us[1], vs[1]) : new Lasso(us, vs, count);
+            boolean[] mask = new boolean[rowCount];
+            int selected = source.select(lasso, f, mask);
+
+            // Going through the mask gives the rows already in csv order, no sorting needed
+            int[] rows = new int[selected];
+            for (int row = 0, i = 0; i < selected; row++) {
+                if (mask[row]) {
+                    rows[i++] = row;
+                }
+            }
+            Platform.runLater(() -> {
+
+                // The rows would point at the wrong players if the data was reloaded in the meantime
+                if (version == dataVersion) {
+                    setSelection(rows, selected == 0 ? null : mask);
+                }
+            });
+        });
+    }
+
+    /**
+     * setAnimateTransitions
+     * Turns the sliding animation between axes on or off.
+     *
+     * @param animateTransitions True to animate axis changes.
+     */
+    public void setAnimateTransitions(boolean animateTransitions) {
+        this.animateTransitions = animateTransitions;
+        if (!animateTransitions) {
+            transition.stop();
+        }
+    }
+
+    /**
+     * setPlayers
+     * Replaces the data being drawn. The projection is redone, and only the rank layers whose points moved
+     * need new tiles. The selection and the highlighted players are cleared, since their rows were rows of the
+     * old data.
+     *
+     * @param players The new table of players.
+     * @param percentiles The percentile index of the new players.
+     * @param dataVersion The version of the new data, higher than any before it.
+     */
+    public void setPlayers(PlayerTable players, PercentileIndex percentiles, int dataVersion) {
+        this.players = players;
+        this.percentiles = percentiles;
+        this.dataVersion = dataVersion;
+        transition.stop();
+        highlightRows = new int[0];
+        if (selectedRows.length > 0) {
+            setSelection(new int[0]);
+        }
+        rebuildPyramid();
+    }
+
+    /**
+     * Uses the cached projection for the current axes if there is one, otherwise starts
+     * projecting the players on a worker thread. If transitions are on, the old points stay up until the
+     * new projection is ready and then slide over to it.
+     */
+    private void rebuildPyramid() {
+        if (xParam == null) {
+            return;
+        }
+        int generation = ++buildGeneration;
+        TilePyramid previous = animateTransitions && pyramid != null && pyramid.getDataVersion() == dataVersion
+                ? pyramid : null;
+        PercentileIndex source = percentiles;
+        RenderCache.ViewKey key = new RenderCache.ViewKey(xParam, yParam, dataVersion);
+        RenderCache.PreparedView view = renderCache.get(key);
+        if (view != null && view.getPyramid() != null) {
+            TilePyramid cached = view.getPyramid();
+            if (previous == null || previous == cached) {
+                pyramid = cached;
+                redraw();
+                return;
+            }
+
+            // The projection is cached, but the start and end positions still have to be worked out
+            WORKERS.execute(() -> {
+                TransitionLayer.Buffers buffers = TransitionLayer.prepare(source, previous, cached);
+                Platform.runLater(() -> {
+                    if (generation == buildGeneration) {
+                        pyramid = cached;
+                        startTransition(buffers);
+                    }
+                });
+            });
+            return;
+        }
+
+        String x = xParam;
+        String y = yParam;
+        int version = dataVersion;
+        if (previous == null) {
+            pyramid = null;
+            redraw();
+        }
+
+        WORKERS.execute(() -> {
+            TilePyramid built = TilePyramid.build(source.getPlayers(), source, x, y, version);
+            TransitionLayer.Buffers buffers = previous == null ? null : TransitionLayer.prepare(source, previous, built);
+            Platform.runLater(() -> {
+
+                // Cache it even if the user has moved on, it's already paid for
+                RenderCache.PreparedView cached = renderCache.get(key);
+                if (cached == null) {
+                    cached = new RenderCache.PreparedView();
+                }
+                if (version == dataVersion) {
+                    cached.setPyramid(built);
+                    renderCache.put(key, cached);
+                }
+                if (generation == buildGeneration) {
+                    pyramid = built;
+                    if (buffers != null) {
+                        startTransition(buffers);
+                    } else {
+                        redraw();
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Starts sliding the points over, and asks for the new tiles right away so they're (hopefully) ready
+     * by the time the animation ends.
+     */
+    private void startTransition(TransitionLayer.Buffers buffers) {
+        transition.start(buffers);
+        if (viewFitted) {
+            drawTiles(null);
+        }
+        redraw();
+    }
+
+    /**
+     * Zooms in or out while keeping the point under the mouse in the same place.
+     */
+    private void zoomAround(double sx, double sy, double factor) {
+        if (!viewFitted) {
+            return;
+        }
+        double minZoom = Math.min(plotWidth(), plotHeight()) / 4;
+        double maxZoom = (double) TilePyramid.TILE_SIZE * (1 << TilePyramid.MAX_LEVEL) * 4;
+        double newZoom = Math.max(minZoom, Math.min(maxZoom, zoom * factor));
+
+        // Unit square point under the mouse before and after has to match
+        double ux = viewX + (sx - LEFT) / zoom;
+        double uy = viewY + (sy - TOP) / zoom;
+        zoom = newZoom;
+        viewX = ux - (sx - LEFT) / zoom;
+        viewY = uy - (sy - TOP) / zoom;
+        redraw();
+    }
+
+    /**
+     * Sets the view so the whole unit square fits in the middle of the plot.
+     */
+    private void fitView() {
+        zoom = Math.max(1, Math.min(plotWidth(), plotHeight()));
+        viewX = 0.5 - plotWidth() / zoom / 2;
+        viewY = 0.5 - plotHeight() / zoom / 2;
+        viewFitted = true;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+        if (!viewFitted && plotWidth() > 0 && plotHeight() > 0) {
+            fitView();
+        }
+        redraw();
+    }
+
+    /**
+     * Redraws on the next pulse, so a burst of finished tiles only causes one redraw.
+     */
+    private void scheduleRedraw() {
+        if (!redrawQueued) {
+            redrawQueued = true;
+            Platform.runLater(() -> {
+                redrawQueued = false;
+                redraw();
+            });
+        }
+    }
+
+    /**
+     * redraw
+     * Draws the visible tiles from the cache and asks the workers for any that are missing.
+     * This only ever draws images that already exist, so it's cheap no matter how many players there are.
+     * While a transition is playing, its frame is drawn instead of the tiles.
+     */
+    private void redraw() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawTitle(gc);
+
+        if (pyramid == null || !viewFitted) {
+            gc.setFill(Color.GRAY);
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.fillText("Projecting players...", LEFT + plotWidth() / 2, TOP + plotHeight() / 2);
+            return;
+        }
+
+        // The tick labels are skipped too, formatting them would make garbage every frame
+        if (transition.isRunning()) {
+            transition.draw(gc, LEFT, TOP, plotWidth(), plotHeight(), viewX, viewY, zoom, filter);
+            drawAxes(gc, false);
+            return;
+        }
+
+        gc.save();
+        gc.beginPath();
+        gc.rect(LEFT, TOP, plotWidth(), plotHeight());
+        gc.clip();
+        drawTiles(gc);
+        drawHighlight(gc);
+        drawSelectionPath(gc);
+        gc.restore();
+
+        drawAxes(gc, true);
+    }
+
+    /**
+     * Draws the tiles that are on screen, one layer for each rank that's shown and the selection on top, and asks
+     * the workers for any that are missing. With a null GraphicsContext, it only asks for them.
+     */
+    private void drawTiles(GraphicsContext gc) {
+        // Pick the level where tiles are drawn at about their real size (never blown up more than 2x)
+        int level = (int) Math.ceil(Math.log(zoom / TilePyramid.TILE_SIZE) / Math.log(2));
+        level = Math.max(0, Math.min(TilePyramid.MAX_LEVEL, level));
+        int tiles = 1 << level;
+        double tileScreen = zoom / tiles;
+
+        // Range of tiles that overlap the plot
+        int txMin = Math.max(0, (int) Math.floor(viewX * tiles));
+        int txMax = Math.min(tiles - 1, (int) Math.floor((viewX + plotWidth() / zoom) * tiles));
+        int tyMin = Math.max(0, (int) Math.floor(viewY * tiles));
+        int tyMax = Math.min(tiles - 1, (int) Math.floor((viewY + plotHeight() / zoom) * tiles));
+
+        Set<TileCache.TileKey> nowWanted = new HashSet<>();
+        for (int rank = 0; rank <= TilePyramid.SELECTION_LAYER; rank++) {
+            boolean shown = rank == TilePyramid.SELECTION_LAYER ? selectedMask != null : (filter & (1 << rank)) != 0;
+            if (!shown) {
+                continue;
+            }
+            for (int ty = tyMin; ty <= tyMax; ty++) {
+                for (int tx = txMin; tx <= txMax; tx++) {
+                    double dx = LEFT + (tx / (double) tiles - viewX) * zoom;
+                    double dy = TOP + (ty / (double) tiles - viewY) * zoom;
+                    TileCache.TileKey key = tileKey(rank, level, tx, ty);
+                    Image image = tileCache.get(key);
+                    if (image == null) {
+                        nowWanted.add(key);
+                        if (gc != null) {
+                            drawFallback(gc, rank, level, tx, ty, dx, dy, tileScreen);
+                        }
+                    } else if (gc != null && image != TilePyramid.EMPTY_TILE) {
+                        gc.drawImage(image, dx, dy, tileScreen, tileScreen);
+                    }
+                }
+            }
+        }
+
+        wanted = nowWanted;
+        for (TileCache.TileKey key : nowWanted) {
+            requestTile(key);
+        }
+    }
+
+    /**
+     * Draws the matching part of the closest zoomed out tile that's already cached, stretched to fill the gap.
+     */
+    private void drawFallback(GraphicsContext gc, int rank, int level, int tx, int ty, double dx, double dy,
+                              double size) {
+        for (int parentLevel = level - 1; parentLevel >= 0; parentLevel--) {
+            int depth = level - parentLevel;
+            Image parent = tileCache.get(tileKey(rank, parentLevel, tx >> depth, ty >> depth));
+            if (parent == TilePyramid.EMPTY_TILE) {
+                return;
+            }
+            if (parent != null) {
+                double sub = (double) TilePyramid.TILE_SIZE / (1 << depth);
+                double sx = (tx & ((1 << depth) - 1)) * sub;
+                double sy = (ty & ((1 << depth) - 1)) * sub;
+                gc.drawImage(parent, sx, sy, sub, sub, dx, dy, size, size);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands a missing tile to the workers, unless it's already being worked on.
+     */
+    private void requestTile(TileCache.TileKey key) {
+        if (!pending.add(key)) {
+            return;
+        }
+        TilePyramid source = pyramid;
+        boolean[] mask = selectedMask;
+        int f = filter;
+        WORKERS.execute(() -> {
+
+            // The user may have moved on since this was queued, don't waste time on it
+            if (!wanted.contains(key)) {
+                Platform.runLater(() -> pending.remove(key));
+                return;
+            }
+            Image image = key.getRank() == TilePyramid.SELECTION_LAYER
+                    ? source.rasterizeSelection(mask, f, key.getLevel(), key.getTx(), key.getTy())
+                    : source.rasterize(key.getRank(), key.getLevel(), key.getTx(), key.getTy());
+            Platform.runLater(() -> {
+                pending.remove(key);
+                tileCache.put(key, image);
+                scheduleRedraw();
+            });
+        });
+    }
+
+    /**
+     * Draws a ring around each highlighted player. There's only ever a few of these, so it's fine to
+     * work them out every frame.
+     */
+    private void drawHighlight(GraphicsContext gc) {
+        double xRange = pyramid.getXMax() - pyramid.getXMin();
+        double yRange = pyramid.getYMax() - pyramid.getYMin();
+        gc.setStroke(Color.RED);
+        gc.setLineWidth(2);
+        for (int row : highlightRows) {
+            if (row >= players.size()) {
+                continue;
+            }
+            int rank = players.getRankBucket(row);
+            if (rank < 0 || (filter & (1 << rank)) == 0) {
+                continue;
+            }
+            double u = (percentiles.getAxisValue(row, pyramid.getXParam()) - pyramid.getXMin()) / xRange;
+            double v = (pyramid.getYMax() - percentiles.getAxisValue(row, pyramid.getYParam())) / yRange;
+            double sx = LEFT + (u - viewX) * zoom;
+            double sy = TOP + (v - viewY) * zoom;
+            gc.strokeOval(sx - 7, sy - 7, 14, 14);
+        }
+        gc.setLineWidth(1);
+    }
+
+    private TileCache.TileKey tileKey(int rank, int level, int tx, int ty) {
+        if (rank == TilePyramid.SELECTION_LAYER) {
+            return new TileCache.TileKey(pyramid.getXParam(), pyramid.getYParam(), rank, selectionLayerId(), level,
+                    tx, ty);
+        }
+        return pyramid.tileKey(rank, level, tx, ty);
+    }
+
+    /**
+     * The selection layer changes with the selection, with the ranks that are shown, and with where the points
+     * are, so its fingerprint mixes all three.
+     */
+    private long selectionLayerId() {
+        long id = selectionVersion;
+        for (int rank = 0; rank < TilePyramid.LAYERS; rank++) {
+            id = id * 31 + pyramid.getLayerId(rank);
+        }
+        return id * 31 + filter;
+    }
+
+    /**
+     * Draws the box or lasso while it's being dragged out.
+     */
+    private void drawSelectionPath(GraphicsContext gc) {
+        if (!selecting || pathCount < 2) {
+            return;
+        }
+        gc.setStroke(Color.BLACK);
+        gc.setFill(Color.rgb(0, 0, 0, 0.08));
+        gc.setLineDashes(4);
+        if (dragMode == DRAG_BOX) {
+            double x = Math.min(pathX[0], pathX[1]);
+            double y = Math.min(pathY[0], pathY[1]);
+            double w = Math.abs(pathX[1] - pathX[0]);
+            double h = Math.abs(pathY[1] - pathY[0]);
+            gc.fillRect(x, y, w, h);
+            gc.strokeRect(x, y, w, h);
+        } else {
+            gc.fillPolygon(pathX, pathY, pathCount);
+            gc.strokePolygon(pathX, pathY, pathCount);
+        }
+        gc.setLineDashes(null);
+    }
+
+    private void drawTitle(GraphicsContext gc) {
+        gc.setFill(Color.BLACK);
+        gc.setFont(TITLE_FONT);
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText("TETR.IO stat comparisons", LEFT + plotWidth() / 2, TOP / 2);
+        gc.setFont(Font.getDefault());
+    }
+
+    /**
+     * Draws the plot border, tick labels for the part of the data that's on screen (if showTicks), and the
+     * axis names.
+     */
+    private void drawAxes(GraphicsContext gc, boolean showTicks) {
+        gc.setStroke(Color.GRAY);
+        gc.strokeRect(LEFT, TOP, plotWidth(), plotHeight());
+        gc.setFill(Color.BLACK);
+
+        double xRange = pyramid.getXMax() - pyramid.getXMin();
+        double yRange = pyramid.getYMax() - pyramid.getYMin();
+        int ticks = 5;
+        for (int i = 0; showTicks && i <= ticks; i++) {
+
+            // X ticks along the bottom
+            double sx = LEFT + plotWidth() * i / ticks;
+            double ux = viewX + (sx - LEFT) / zoom;
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.setTextBaseline(VPos.TOP);
+            gc.fillText(String.format("%.2f", pyramid.getXMin() + ux * xRange), sx, TOP + plotHeight() + 5);
+
+            // Y ticks along the left, v goes down the screen but the values go up
+            double sy = TOP + plotHeight() * i / ticks;
+            double uy = viewY + (sy - TOP) / zoom;
+            gc.setTextAlign(TextAlignment.RIGHT);
+            gc.setTextBaseline(VPos.CENTER);
+            gc.fillText(String.format("%.2f", pyramid.getYMax() - uy * yRange), LEFT - 5, sy);
+        }
+
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.BOTTOM);
+        gc.fillText(pyramid.getXParam(), LEFT + plotWidth() / 2, getHeight() - 5);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.BOTTOM);
+        gc.fillText(pyramid.getYParam(), 5, TOP - 5);
+    }
+
+    private double plotWidth() {
+        return Math.max(0, getWidth() - LEFT - RIGHT);
+    }
+
+    private double plotHeight() {
+        return Math.max(0, getHeight() - TOP - BOTTOM);
+    }
+}
@@ -4,6 +4,8 @@ import javafx.application.Application;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.chart.ScatterChart;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -51,20 +53,33 @@ public class cpt extends Application {
         // uncomment following line for CSV with all of players, warning may lag computer
         // filePath = "src/cpt/leaderboard.csv";
 
-        List<Player> players = DataManager.loadPlayersFromCsv(filePath);
+        // Set to true to store the stats as fixed-point shorts/ints, less than half the memory of Player objects
+        boolean compactStats = false;
+
+        // Huge CSVs (and .snap snapshot files) are memory-mapped off the heap instead of loaded as Player objects
+        PlayerTable players = DataManager.loadPlayers(filePath, compactStats);
         System.out.println("Loaded csv");
 
+        // Memory cap for the zoomable chart's tiles, each 256x256 tile is 256 KB
+        long tileCacheBytes = 64L * 1024 * 1024;
+
+        // Rough memory cap for cached chart views, so switching back to old axes is instant
+        long renderCacheBytes = 256L * 1024 * 1024;
+
         // x and y axis initial parameters
         String xParam = "PPS";
         String yParam = "TR";
 
         // Create a ChartManager instance and a chart with initial x and y axis, and create a scatter plot
-        ChartManager chartManager = new ChartManager(players);
+        ChartManager chartManager = new ChartManager(players, renderCacheBytes);
+
+        // The zoom chart is made first so huge datasets can skip the scatter chart
+        ZoomChart zoomChart = chartManager.createZoomChart(tileCacheBytes);
         ScatterChart<Number, Number> scatterChart = chartManager.createChart(xParam, yParam);
 
         // Create a UIManager instance with x and y axis parameters, and create the legend
         UIManager uiManager = new UIManager(xParam, yParam);
-        VBox legend = uiManager.createLegend();
+        VBox legend = uiManager.createLegend(chartManager, scatterChart);
 
         // Game description
         Label gameDescription = new Label(
@@ -83,13 +98,39 @@ public class cpt extends Application {
         // Merge X and Y axis selector containers into one HBox
         HBox dropdownContainer = uiManager.mergeVBox(xAxisBox, yAxisBox);
 
-        // Create chart container with the scatter chart and legend
-        HBox chartContainer = new HBox(10, scatterChart, legend);
+        // Who's been selected on the zoom chart, with their stats
+        VBox selectionPanel = uiManager.createSelectionPanel(chartManager);
+
+        // Create chart container with the scatter chart, legend and selection panel
+        HBox chartContainer = new HBox(10, scatterChart, legend, selectionPanel);
         HBox.setHgrow(scatterChart, Priority.ALWAYS); // Chart takes 80% of the space
         HBox.setHgrow(legend, Priority.NEVER); // Legend takes 20% of the space
 
+        // Toggle between the normal chart and the zoomable one
+        CheckBox zoomToggle = uiManager.createZoomToggle(chartManager, chartContainer, scatterChart, zoomChart);
+
+        // Slide the points over when the axes change in the zoom chart
+        CheckBox transitionToggle = uiManager.createTransitionToggle(chartManager);
+
+        // Reload the csv, e.g. after running index.js again
+        Button reloadButton = uiManager.createReloadButton(filePath, compactStats, chartManager, scatterChart);
+
+        // Save the players on the chart for other tools
+        Button exportButton = uiManager.createExportButton(filePath, chartManager);
+
+        // Pan the zoom chart, or select players on it with a box or lasso
+        HBox dragModeSelector = uiManager.createDragModeSelector(zoomChart);
+
+        // Look for players whose stats don't fit their rank
+        Button outlierButton = uiManager.createOutlierButton(chartManager, scatterChart);
+
+        // Put the extra options in a row under the dropdowns
+        HBox optionsContainer = new HBox(10, zoomToggle, transitionToggle, dragModeSelector, reloadButton, exportButton,
+                outlierButton);
+        optionsContainer.setAlignment(Pos.CENTER_LEFT);
+
         // Create the final VBox layout
-        VBox layout = new VBox(10, chartContainer, gameDescription, dropdownContainer);
+        VBox layout = new VBox(10, chartContainer, gameDescription, dropdownContainer, optionsContainer);
 
         // Create and set the scene
         System.out.println("Scene setup");
@@ -0,0 +1,141 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ArrowPlayerTableTest
+ * Writes players with ArrowWriter and checks that ArrowPlayerTable reads every one back exactly, plus a stream
+ * whose rank dictionary gets replaced half way through and a big-endian file.
+ *
+ * @author R. Shi
+ */
+class ArrowPlayerTableTest {
+
+    @TempDir
+    Path folder;
+
+    private static void assertSamePlayers(PlayerTable expected, int[] rows, PlayerTable actual) {
+        assertEquals(rows.length, actual.size());
+        double[] column = new double[actual.size()];
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(expected.getUsername(rows[i]), actual.getUsername(i));
+            assertEquals(expected.getRank(rows[i]), actual.getRank(i));
+            assertEquals(expected.getRankBucket(rows[i]), actual.getRankBucket(i));
+        }
+        for (int stat = 0; stat < PlayerTable.STAT_COUNT; stat++) {
+            actual.fillStat(stat, column);
+            for (int i = 0; i < rows.length; i++) {
+                assertEquals(expected.getStat(rows[i], stat), actual.getStat(i, stat), "row " + i + " stat " + stat);
+                assertEquals(expected.getStat(rows[i], stat), column[i], "row " + i + " stat " + stat);
+            }
+        }
+    }
+
+    private static byte[] stream(PlayerTable players, int[] rows) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ArrowWriter.writeStream(players, rows, Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    private Path save(String name, byte[] bytes) throws IOException {
+        Path path = folder.resolve(name);
+        Files.write(path, bytes);
+        return path;
+    }
+
+    @Test
+    void fileRoundTrip() throws IOException {
+        PlayerTable players = TestTables.randomTable(3000, 21);
+        int[] rows = IntStream.range(0, players.size()).toArray();
+        Path path = folder.resolve("players.arrow");
+        ArrowWriter.writeFile(players, rows, path);
+        assertSamePlayers(players, rows, ArrowPlayerTable.open(path));
+    }
+
+    @Test
+    void streamRoundTripOfSomeRows() throws IOException {
+        PlayerTable players = TestTables.randomTable(3000, 22);
+        int[] rows = IntStream.range(0, players.size()).filter(row -> row % 3 != 1).map(row -> players.size() - 1 - row)
+                .toArray();
+        Path path = save("players.arrows", stream(players, rows));
+        assertSamePlayers(players, rows, ArrowPlayerTable.open(path));
+    }
+
+    @Test
+    void replacedDictionaryOnlyChangesLaterBatches() throws IOException {
+        PlayerTable players = TestTables.randomTable(500, 23);
+        int[] rows = IntStream.range(0, players.size()).toArray();
+        byte[] first = stream(players, rows);
+        byte[] second = stream(players, rows);
+
+        // Rename rank "d" (dictionary index 0) to "x" in the second stream's dictionary
+        byte[] names = "dd+c-cc+".getBytes(StandardCharsets.US_ASCII);
+        int at = indexOf(second, names);
+        assertTrue(at > 0);
+        second[at] = 'x';
+
+        // The first stream without its end marker, then the second one without its schema
+        int schemaEnd = 8 + ByteBuffer.wrap(second, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        joined.write(first, 0, first.length - 8);
+        joined.write(second, schemaEnd, second.length - schemaEnd);
+        PlayerTable table = ArrowPlayerTable.open(save("joined.arrows", joined.toByteArray()));
+
+        assertEquals(2 * players.size(), table.size());
+        for (int row = 0; row < players.size(); row++) {
+            String rank = players.getRank(row);
+            assertEquals(rank, table.getRank(row));
+            assertEquals(rank.equals("d") ? "x" : rank, table.getRank(players.size() + row));
+        }
+    }
+
+    @Test
+    void bigEndianIsRejected() throws IOException {
+        ArrowFormat.Builder b = new ArrowFormat.Builder();
+        ArrowFormat.Builder.TableBuilder message = b.startTable(5)
+                .addShort(ArrowFormat.MESSAGE_VERSION, ArrowFormat.VERSION)
+                .addByte(ArrowFormat.MESSAGE_HEADER_TYPE, ArrowFormat.HEADER_SCHEMA)
+                .addOffset(ArrowFormat.MESSAGE_HEADER)
+                .addLong(ArrowFormat.MESSAGE_BODY_LENGTH, 0);
+        b.setRoot(message.end());
+        int schema = b.startTable(4).addShort(ArrowFormat.SCHEMA_ENDIANNESS, (short) 1).end();
+        b.link(message.fieldPosition(ArrowFormat.MESSAGE_HEADER), schema);
+        byte[] metadata = b.finish();
+
+        ByteBuffer bytes = ByteBuffer.allocate(16 + metadata.length).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(ArrowFormat.CONTINUATION).putInt(metadata.length).put(metadata);
+        bytes.putInt(ArrowFormat.CONTINUATION).putInt(0);
+        Path path = save("big.arrows", bytes.array());
+
+        IOException e = assertThrows(IOException.class, () -> ArrowPlayerTable.open(path));
+        assertTrue(e.getMessage().contains("Big-endian"));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < part.length && bytes[i + j] == part[j]) {
+                j++;
+            }
+            if (j == part.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,128 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * CompactPlayerTableTest
+ * Round-trips stats through the fixed-point columns: columns with few decimals have to come back exactly, and
+ * rounded columns have to stay within half of their last decimal.
+ *
+ * @author R. Shi
+ */
+class CompactPlayerTableTest {
+
+    private static final double[] TWO_DECIMALS = {172.66, 0.01, 3.64, 339.36, 0, 99.99, 12.3, 0.1 + 0.2};
+
+    @Test
+    void fixedDecimalColumnsDecodeExactly() {
+        double[] values = TWO_DECIMALS.clone();
+        values[values.length - 1] = 0.3;
+        CompactPlayerTable.QuantizedColumn column = CompactPlayerTable.QuantizedColumn.encode(values, values.length);
+        assertFalse(column.isLossy());
+        assertEquals(2, column.getDecimals());
+        assertEquals(2, column.getBytesPerValue());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], column.get(i));
+        }
+    }
+
+    @Test
+    void wideRangesUseInts() {
+        double[] values = {-5000.25, 25000.5, 0, 1234.75};
+        CompactPlayerTable.QuantizedColumn column = CompactPlayerTable.QuantizedColumn.encode(values, values.length);
+        assertFalse(column.isLossy());
+        assertEquals(4, column.getBytesPerValue());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], column.get(i));
+        }
+    }
+
+    @Test
+    void roundedColumnsStayWithinHalfTheLastDecimal() {
+        List<Player> players = TestTables.randomPlayers(5000, 6);
+        CompactPlayerTable table = CompactPlayerTable.encode(new HeapPlayerTable(players));
+        PlayerTable heap = new HeapPlayerTable(players);
+
+        for (int column : new int[] {PlayerTable.TR, PlayerTable.GLICKO, PlayerTable.RD}) {
+            CompactPlayerTable.QuantizedColumn stat = table.getStatColumn(column);
+            assertTrue(stat.isLossy());
+            assertEquals(4, stat.getDecimals());
+            double bound = 0.5 / Math.pow(10, stat.getDecimals());
+            for (int row = 0; row < players.size(); row++) {
+                // Plus a few units in the last place, since the value itself isn't exactly representable
+                double value = heap.getStat(row, column);
+                double error = Math.abs(table.getStat(row, column) - value);
+                assertTrue(error <= bound + 4 * Math.ulp(value), "row " + row + " column " + column + " off by " + error);
+            }
+        }
+        for (int column : new int[] {PlayerTable.APM, PlayerTable.PPS, PlayerTable.VS}) {
+            assertFalse(table.getStatColumn(column).isLossy());
+            for (int row = 0; row < players.size(); row++) {
+                assertEquals(heap.getStat(row, column), table.getStat(row, column));
+            }
+        }
+    }
+
+    @Test
+    void missingValuesComeBackAsNaN() {
+        double[] shortValues = {1.5, Double.NaN, 2.25, Double.POSITIVE_INFINITY};
+        CompactPlayerTable.QuantizedColumn shorts =
+                CompactPlayerTable.QuantizedColumn.encode(shortValues, shortValues.length);
+        assertEquals(2, shorts.getBytesPerValue());
+        assertEquals(1.5, shorts.get(0));
+        assertTrue(Double.isNaN(shorts.get(1)));
+        assertEquals(2.25, shorts.get(2));
+        assertTrue(Double.isNaN(shorts.get(3)));
+
+        double[] intValues = {0, Double.NaN, 100000};
+        CompactPlayerTable.QuantizedColumn ints = CompactPlayerTable.QuantizedColumn.encode(intValues, intValues.length);
+        assertEquals(4, ints.getBytesPerValue());
+        assertEquals(100000, ints.get(2));
+        assertTrue(Double.isNaN(ints.get(1)));
+
+        double[] allMissing = {Double.NaN, Double.NaN};
+        CompactPlayerTable.QuantizedColumn missing =
+                CompactPlayerTable.QuantizedColumn.encode(allMissing, allMissing.length);
+        assertTrue(Double.isNaN(missing.get(0)));
+    }
+
+    @Test
+    void emptyColumnEncodes() {
+        CompactPlayerTable.QuantizedColumn column = CompactPlayerTable.QuantizedColumn.encode(new double[0], 0);
+        assertEquals(0, column.size());
+        assertEquals(0, CompactPlayerTable.encode(new HeapPlayerTable(List.of())).size());
+    }
+
+    @Test
+    void fillStatMatchesGetStat() {
+        CompactPlayerTable table = CompactPlayerTable.encode(TestTables.randomTable(3000, 7));
+        double[] out = new double[table.size()];
+        for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+            table.fillStat(column, out);
+            for (int row = 0; row < table.size(); row++) {
+                assertEquals(table.getStat(row, column), out[row]);
+            }
+        }
+    }
+
+    @Test
+    void streamedCsvMatchesEncodedPlayers() {
+        String csv = "src/cpt/mini.csv";
+        PlayerTable expected = CompactPlayerTable.encode(new HeapPlayerTable(DataManager.loadPlayersFromCsv(csv)));
+        CompactPlayerTable streamed = DataManager.loadCompactFromCsv(csv);
+        assertEquals(expected.size(), streamed.size());
+        for (int row = 0; row < streamed.size(); row++) {
+            assertEquals(expected.getUsername(row), streamed.getUsername(row));
+            assertEquals(expected.getRank(row), streamed.getRank(row));
+            for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                assertEquals(expected.getStat(row, column), streamed.getStat(row, column));
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * LassoTest
+ * Checks the grid and the row-bucketed point-in-polygon test against a brute force test over every edge, for
+ * boxes and random (even self-crossing) outlines, and that selecting from a pyramid finds the same players.
+ *
+ * @author R. Shi
+ */
+class LassoTest {
+
+    private static final int GRID = 1 << Lasso.GRID_LEVEL;
+
+    /**
+     * The plain even-odd test, checking every edge. Same edge direction and formula as Lasso.contains, so the
+     * rounding is the same too.
+     */
+    private static boolean bruteForce(float[] us, float[] vs, int count, float u, float v) {
+        boolean inside = false;
+        for (int i = 0; i < count; i++) {
+            int j = (i + 1) % count;
+            if ((vs[i] > v) != (vs[j] > v) && u < (us[j] - us[i]) * (v - vs[i]) / (vs[j] - vs[i]) + us[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private static int cellOf(float coordinate) {
+        return Math.max(0, Math.min(GRID - 1, (int) Math.floor(coordinate * GRID)));
+    }
+
+    /**
+     * A random loop around the middle of the square, like a freehand lasso. Some corners go past the edge of
+     * the square and with enough wobble the outline crosses itself.
+     */
+    private static float[][] randomOutline(Random random, int count) {
+        float[] us = new float[count];
+        float[] vs = new float[count];
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            double radius = 0.1 + random.nextDouble() * 0.55;
+            us[i] = (float) (0.5 + radius * Math.cos(angle));
+            vs[i] = (float) (0.5 + radius * Math.sin(angle));
+        }
+        return new float[][] {us, vs};
+    }
+
+    private static void assertMatchesBruteForce(float[] us, float[] vs, int count, Random random) {
+        Lasso lasso = new Lasso(us, vs, count);
+        int inside = 0;
+        for (int k = 0; k < 20000; k++) {
+            float u = random.nextFloat() * 1.2f - 0.1f;
+            float v = random.nextFloat() * 1.2f - 0.1f;
+            boolean expected = bruteForce(us, vs, count, u, v);
+            assertEquals(expected, lasso.contains(u, v), "u " + u + " v " + v);
+
+            // A cell that isn't on the outline has to be right about every point in it
+            byte cell = lasso.getCell(TilePyramid.interleave(cellOf(u), cellOf(v)));
+            if (cell != Lasso.EDGE) {
+                assertEquals(expected ? Lasso.INSIDE : Lasso.OUTSIDE, cell, "u " + u + " v " + v);
+            }
+            if (expected) {
+                inside++;
+            }
+        }
+        assertNotEquals(0, inside);
+    }
+
+    @Test
+    void boxMatchesBruteForce() {
+        Random random = new Random(41);
+        for (int trial = 0; trial < 20; trial++) {
+            float u0 = random.nextFloat();
+            float v0 = random.nextFloat();
+            float u1 = random.nextFloat();
+            float v1 = random.nextFloat();
+            Lasso box = Lasso.box(u0, v0, u1, v1);
+            float[] us = {u0, u1, u1, u0};
+            float[] vs = {v0, v0, v1, v1};
+            for (int k = 0; k < 2000; k++) {
+                float u = random.nextFloat();
+                float v = random.nextFloat();
+                assertEquals(bruteForce(us, vs, 4, u, v), box.contains(u, v));
+            }
+        }
+    }
+
+    @Test
+    void randomOutlinesMatchBruteForce() {
+        Random random = new Random(42);
+        for (int count : new int[] {3, 7, 50, 400}) {
+            float[][] outline = randomOutline(random, count);
+            assertMatchesBruteForce(outline[0], outline[1], count, random);
+        }
+    }
+
+    @Test
+    void selfCrossingOutlineMatchesBruteForce() {
+        // A five-pointed star drawn in one stroke, the middle is outside by the even-odd rule
+        float[] us = new float[5];
+        float[] vs = new float[5];
+        for (int i = 0; i < 5; i++) {
+            double angle = 4 * Math.PI * i / 5;
+            us[i] = (float) (0.5 + 0.45 * Math.cos(angle));
+            vs[i] = (float) (0.5 + 0.45 * Math.sin(angle));
+        }
+        assertMatchesBruteForce(us, vs, 5, new Random(43));
+        assertFalse(new Lasso(us, vs, 5).contains(0.5f, 0.5f));
+    }
+
+    @Test
+    void pyramidSelectionMatchesBruteForce() {
+        PlayerTable players = TestTables.randomTable(20000, 44);
+        TilePyramid pyramid = TilePyramid.build(players, new PercentileIndex(players), "TR", "APM", 1);
+        float[][] outline = randomOutline(new Random(45), 60);
+        float[] us = outline[0];
+        float[] vs = outline[1];
+        Lasso lasso = new Lasso(us, vs, us.length);
+
+        // Everything but C and S rank
+        int filter = 0x1FF & ~(1 << 1) & ~(1 << 4);
+        boolean[] selected = new boolean[players.size()];
+        int count = pyramid.select(lasso, filter, selected);
+
+        boolean[] expected = new boolean[players.size()];
+        int expectedCount = 0;
+        for (int i = 0; i < pyramid.size(); i++) {
+            int row = pyramid.getRow(i);
+            int rank = players.getRankBucket(row);
+            if ((filter & (1 << rank)) != 0 && bruteForce(us, vs, us.length, pyramid.getU(i), pyramid.getV(i))) {
+                expected[row] = true;
+                expectedCount++;
+            }
+        }
+        assertEquals(expectedCount, count);
+        for (int row = 0; row < players.size(); row++) {
+            assertEquals(expected[row], selected[row], "row " + row);
+        }
+    }
+}
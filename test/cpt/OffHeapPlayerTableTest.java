@@ -0,0 +1,126 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * OffHeapPlayerTableTest
+ * Converts csv files into snapshots and checks that every player reads back exactly like the csv.
+ *
+ * @author R. Shi
+ */
+class OffHeapPlayerTableTest {
+
+    private static final String HEADER = "username,tr,rank,glicko,rd,apm,pps,vs";
+
+    @TempDir
+    Path folder;
+
+    private PlayerTable roundTrip(String csvText) throws IOException {
+        Path csv = folder.resolve("players.csv");
+        Path snapshot = folder.resolve("players.snap");
+        Files.writeString(csv, csvText);
+        DataManager.convertCsvToSnapshot(csv.toString(), snapshot.toString());
+        return OffHeapPlayerTable.open(snapshot);
+    }
+
+    private static void assertSamePlayers(List<Player> expected, PlayerTable actual) {
+        assertEquals(expected.size(), actual.size());
+        PlayerTable heap = new HeapPlayerTable(expected);
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(heap.getUsername(row), actual.getUsername(row));
+            assertEquals(heap.getRank(row), actual.getRank(row));
+            assertEquals(heap.getRankBucket(row), actual.getRankBucket(row));
+            for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+                assertEquals(heap.getStat(row, column), actual.getStat(row, column), "row " + row + " column " + column);
+            }
+        }
+    }
+
+    @Test
+    void snapshotMatchesCsv() throws IOException {
+        List<Player> players = TestTables.randomPlayers(2000, 5);
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (Player p : players) {
+            csv.append(p.getUsername()).append(',').append(p.getTr()).append(',').append(p.getRank()).append(',')
+                    .append(p.getGlicko()).append(',').append(p.getRd()).append(',').append(p.getApm()).append(',')
+                    .append(p.getPps()).append(',').append(p.getVs()).append('\n');
+        }
+        assertSamePlayers(players, roundTrip(csv.toString()));
+    }
+
+    @Test
+    void keepsNonAsciiUsernames() throws IOException {
+        PlayerTable table = roundTrip(HEADER + "\n"
+                + "zoë,24000.5,x+,3000.1,60.2,180.25,3.5,400.75\n"
+                + "テトリス,100,d,1200,150,10.5,0.8,20\n");
+        assertEquals("zoë", table.getUsername(0));
+        assertEquals("テトリス", table.getUsername(1));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void skipsBlankAndCommaLessLines() throws IOException {
+        String csvText = HEADER + "\n"
+                + "alice,100,a,1500,80,50.25,1.5,60\n"
+                + "\n"
+                + "not a player\n"
+                + "bob,200,s+,1600,70,70,2.25,80.5\n"
+                + "\n";
+        PlayerTable table = roundTrip(csvText);
+
+        Path csv = folder.resolve("players.csv");
+        assertSamePlayers(DataManager.loadPlayersFromCsv(csv.toString()), table);
+        assertEquals(2, table.size());
+        assertEquals("bob", table.getUsername(1));
+    }
+
+    @Test
+    void emptyCsvMakesEmptySnapshot() throws IOException {
+        assertEquals(0, roundTrip(HEADER + "\n").size());
+    }
+
+    @Test
+    void rejectsFilesThatArentSnapshots() throws IOException {
+        Path notSnapshot = folder.resolve("other.snap");
+        Files.writeString(notSnapshot, "definitely not a snapshot, but long enough for a header");
+        assertThrows(IOException.class, () -> OffHeapPlayerTable.open(notSnapshot));
+    }
+
+    @Test
+    void badRowsLeaveNoSnapshotBehind() throws IOException {
+        Path csv = folder.resolve("players.csv");
+        Path snapshot = folder.resolve("players.snap");
+        for (String badRow : new String[] {"bob,oops,a,1600,70,70,2.25,80.5", "bob,200,a,1600"}) {
+            Files.writeString(csv, HEADER + "\nalice,100,a,1500,80,50.25,1.5,60\n" + badRow + "\n");
+            assertThrows(IOException.class, () -> DataManager.convertCsvToSnapshot(csv.toString(), snapshot.toString()));
+            try (Stream<Path> files = Files.list(folder)) {
+                assertEquals(List.of(csv), files.collect(Collectors.toList()));
+            }
+        }
+    }
+
+    @Test
+    void reconvertingDoesntChangeAMappedSnapshot() throws IOException {
+        PlayerTable before = roundTrip(HEADER + "\nalice,100,a,1500,80,50.25,1.5,60\n");
+
+        // Reload with different players while the old table is still mapped
+        PlayerTable after = roundTrip(HEADER + "\nbob,200,s+,1600,70,70,2.25,80.5\ncarol,300,x,1700,60,90,3,120\n");
+
+        assertEquals(1, before.size());
+        assertEquals("alice", before.getUsername(0));
+        assertEquals(100, before.getStat(0, PlayerTable.TR));
+        assertEquals(2, after.size());
+        assertEquals("carol", after.getUsername(1));
+    }
+}
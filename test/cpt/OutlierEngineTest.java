@@ -0,0 +1,178 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * OutlierEngineTest
+ * Checks who gets flagged (and who can't be), and that a refresh matches players to their old scores by username
+ * instead of by row.
+ *
+ * @author R. Shi
+ */
+class OutlierEngineTest {
+
+    // sqrt of the chi-square(3) 99.9% quantile, nobody closer than this is flagged
+    private static final double FLAG_DISTANCE = Math.sqrt(16.266);
+
+    /**
+     * A normal crowd of A rank players (APM, PPS and VS going up together), plus the extra players given.
+     */
+    private static List<Player> crowd(int count, long seed, Player... extra) {
+        Random random = new Random(seed);
+        List<Player> players = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double skill = random.nextGaussian();
+            players.add(new Player("a" + i, 10000 + random.nextDouble() * 1000, "a", 1500, 80,
+                    60 + 8 * skill + 3 * random.nextGaussian(),
+                    1.5 + 0.1 * skill + 0.05 * random.nextGaussian(),
+                    130 + 15 * skill + 5 * random.nextGaussian()));
+        }
+        Collections.addAll(players, extra);
+        return players;
+    }
+
+    private static Player smurf(String name, String rank) {
+        return new Player(name, 10500, rank, 1500, 80, 150, 3.5, 330);
+    }
+
+    @Test
+    void flagsPlayersPastTheCutoffOnly() {
+        OutlierEngine engine = new OutlierEngine();
+        List<OutlierEngine.Outlier> outliers = engine.score(new HeapPlayerTable(crowd(3000, 11, smurf("smurf", "a"))));
+
+        assertEquals("smurf", outliers.get(0).getUsername());
+        assertEquals(3000, outliers.get(0).getRow());
+        assertTrue(outliers.get(0).getScore() > 10);
+        for (OutlierEngine.Outlier outlier : outliers) {
+            assertTrue(outlier.getScore() > FLAG_DISTANCE);
+        }
+
+        // About 0.1% of a normal crowd is past the cutoff by chance, allow a bit more
+        assertTrue(outliers.size() <= 10, outliers.size() + " flagged");
+    }
+
+    @Test
+    void smallBucketsAndUnrankedPlayersAreNeverFlagged() {
+        List<Player> players = crowd(3000, 12, smurf("unranked", "z"));
+        for (int i = 0; i < 10; i++) {
+            players.add(new Player("x" + i, 24000, "x", 3500, 60, 100 + i, 3 + i * 0.01, 200 + i));
+        }
+        players.add(smurf("lonely x", "x"));
+        for (OutlierEngine.Outlier outlier : new OutlierEngine().score(new HeapPlayerTable(players))) {
+            assertTrue(outlier.getUsername().startsWith("a"), outlier.getUsername() + " was flagged");
+        }
+    }
+
+    @Test
+    void reorderedRefreshRescoresNobody() {
+        List<Player> players = crowd(3000, 13, smurf("smurf", "a"));
+        OutlierEngine engine = new OutlierEngine();
+        List<OutlierEngine.Outlier> before = engine.score(new HeapPlayerTable(players));
+
+        // Same players sorted by TR, like the real csv, so nearly everyone is in a different row
+        List<Player> sorted = new ArrayList<>(players);
+        sorted.sort((p1, p2) -> Double.compare(p2.getTr(), p1.getTr()));
+        List<OutlierEngine.Outlier> after = engine.score(new HeapPlayerTable(sorted));
+
+        assertEquals(0, engine.getRescoredCount());
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getUsername(), after.get(i).getUsername());
+            assertEquals(before.get(i).getScore(), after.get(i).getScore());
+            assertEquals(sorted.get(after.get(i).getRow()).getUsername(), after.get(i).getUsername());
+        }
+    }
+
+    @Test
+    void refreshOnlyRescoresChangedPlayers() {
+        List<Player> players = crowd(3000, 14);
+        OutlierEngine engine = new OutlierEngine();
+        engine.score(new HeapPlayerTable(players));
+
+        // One player turns into a smurf, and everyone shifts down a row because a new player joined at the top
+        List<Player> refreshed = new ArrayList<>(players);
+        refreshed.set(100, smurf(players.get(100).getUsername(), "a"));
+        refreshed.add(0, new Player("newcomer", 11000, "a", 1500, 80, 61, 1.5, 131));
+        List<OutlierEngine.Outlier> outliers = engine.score(new HeapPlayerTable(refreshed));
+
+        assertEquals(2, engine.getRescoredCount());
+        assertEquals(players.get(100).getUsername(), outliers.get(0).getUsername());
+        assertEquals(101, outliers.get(0).getRow());
+    }
+
+    @Test
+    void rankChangesDontForceAFullRescore() {
+        List<Player> players = crowd(3000, 15);
+        for (int i = 0; i < 100; i++) {
+            players.add(new Player("s" + i, 18000, "s", 2500, 70, 90 + i % 7, 2.2 + i % 5 * 0.05, 180 + i % 11));
+        }
+        OutlierEngine engine = new OutlierEngine();
+        engine.score(new HeapPlayerTable(players));
+
+        // One A rank player ranks up to S: both buckets get the change counted, the big A bucket isn't refitted
+        List<Player> refreshed = new ArrayList<>(players);
+        Player promoted = players.get(5);
+        refreshed.set(5, new Player(promoted.getUsername(), promoted.getTr(), "s", promoted.getGlicko(),
+                promoted.getRd(), promoted.getApm(), promoted.getPps(), promoted.getVs()));
+        engine.score(new HeapPlayerTable(refreshed));
+
+        // 1% of 100 S rank players is 1, so the S bucket isn't refitted either
+        assertEquals(1, engine.getRescoredCount());
+    }
+
+    @Test
+    void removedPlayersAreDroppedFromTheResults() {
+        List<Player> players = crowd(3000, 16, smurf("smurf", "a"));
+        OutlierEngine engine = new OutlierEngine();
+        engine.score(new HeapPlayerTable(players));
+
+        List<Player> refreshed = new ArrayList<>(players);
+        refreshed.remove(refreshed.size() - 1);
+        for (OutlierEngine.Outlier outlier : engine.score(new HeapPlayerTable(refreshed))) {
+            assertTrue(!outlier.getUsername().equals("smurf"));
+            assertTrue(outlier.getRow() < refreshed.size());
+        }
+    }
+
+    @Test
+    void smallerReloadOnlyGivesRowsOfTheNewTable() {
+        List<Player> players = crowd(3000, 17, smurf("smurf", "a"));
+        OutlierEngine engine = new OutlierEngine();
+        assertEquals(3000, engine.score(new HeapPlayerTable(players)).get(0).getRow());
+
+        // The reload only has a few hundred players, sorted by TR like the real csv, so the smurf's old row
+        // (3000) isn't even in the table anymore
+        List<Player> reloaded = new ArrayList<>(players.subList(2500, 3001));
+        reloaded.sort((p1, p2) -> Double.compare(p2.getTr(), p1.getTr()));
+        List<OutlierEngine.Outlier> outliers = engine.score(new HeapPlayerTable(reloaded));
+
+        assertEquals("smurf", outliers.get(0).getUsername());
+        for (OutlierEngine.Outlier outlier : outliers) {
+            assertTrue(outlier.getRow() < reloaded.size());
+            assertEquals(reloaded.get(outlier.getRow()).getUsername(), outlier.getUsername());
+        }
+    }
+
+    @Test
+    void playersMissingAStatAreLeftOutOfTheFit() {
+        Player missing = new Player("missing", 10500, "a", 1500, 80, Double.NaN, 1.5, 130);
+        OutlierEngine engine = new OutlierEngine();
+        List<OutlierEngine.Outlier> outliers =
+                engine.score(new HeapPlayerTable(crowd(3000, 18, missing, smurf("smurf", "a"))));
+
+        // The NaN doesn't spoil the A rank fit, so the smurf is still found
+        assertEquals("smurf", outliers.get(0).getUsername());
+        assertEquals(1, engine.getUnscoredCount());
+        for (OutlierEngine.Outlier outlier : outliers) {
+            assertTrue(!outlier.getUsername().equals("missing"));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PercentileIndexTest
+ * Checks the mid-rank percentiles against hand-worked values (with ties and missing values), that columns are
+ * only sorted when asked about, and that the selection summary comes out the same with or without them.
+ *
+ * @author R. Shi
+ */
+class PercentileIndexTest {
+
+    /**
+     * Players whose PPS is the given values, in row order, and every other stat is the row number.
+     */
+    private static PlayerTable withPps(double... pps) {
+        List<Player> players = new ArrayList<>();
+        for (int row = 0; row < pps.length; row++) {
+            players.add(new Player("player" + row, row, "a", row, row, row, pps[row], row));
+        }
+        return new HeapPlayerTable(players);
+    }
+
+    @Test
+    void tiedValuesShareTheirMidRank() {
+        PercentileIndex index = new PercentileIndex(withPps(3, 1, 2, 2, 4));
+
+        // 1 is below the other 4, half of 1 player at 1: (0 + 0.5) / 5
+        assertEquals(10, index.getPercentile(PlayerTable.PPS, 1), 1e-9);
+        // 1 player below and 2 tied: (1 + 1) / 5
+        assertEquals(40, index.getPercentile(PlayerTable.PPS, 2), 1e-9);
+        assertEquals(70, index.getPercentile(PlayerTable.PPS, 3), 1e-9);
+        assertEquals(90, index.getPercentile(PlayerTable.PPS, 4), 1e-9);
+
+        // Values nobody has fall between the players
+        assertEquals(60, index.getPercentile(PlayerTable.PPS, 2.5), 1e-9);
+        assertEquals(0, index.getPercentile(PlayerTable.PPS, 0), 1e-9);
+        assertEquals(100, index.getPercentile(PlayerTable.PPS, 5), 1e-9);
+    }
+
+    @Test
+    void valueAtPercentileGoesBackToThePlayer() {
+        PercentileIndex index = new PercentileIndex(withPps(3, 1, 2, 2, 4));
+        assertEquals(1, index.getValueAtPercentile(PlayerTable.PPS, 10), 0);
+        assertEquals(2, index.getValueAtPercentile(PlayerTable.PPS, 40), 0);
+        assertEquals(4, index.getValueAtPercentile(PlayerTable.PPS, 90), 0);
+        assertEquals(1, index.getValueAtPercentile(PlayerTable.PPS, 0), 0);
+        assertEquals(4, index.getValueAtPercentile(PlayerTable.PPS, 100), 0);
+        assertTrue(Double.isNaN(new PercentileIndex(withPps()).getValueAtPercentile(PlayerTable.PPS, 50)));
+    }
+
+    @Test
+    void missingValuesSortLast() {
+        PercentileIndex index = new PercentileIndex(withPps(Double.NaN, 2, 1, Double.NaN));
+        assertEquals(2, index.getRowAt(PlayerTable.PPS, 0));
+        assertEquals(1, index.getRowAt(PlayerTable.PPS, 1));
+        assertTrue(Double.isNaN(index.getValueAt(PlayerTable.PPS, 2)));
+        assertEquals(12.5, index.getPercentile(PlayerTable.PPS, 1), 1e-9);
+    }
+
+    @Test
+    void fillAxisMatchesGetAxisValue() {
+        PlayerTable players = TestTables.randomTable(3000, 31);
+        PercentileIndex index = new PercentileIndex(players);
+        double[] out = new double[players.size()];
+        for (String attribute : new String[] {"PPS %ile", "VS %ile", "APM"}) {
+            index.fillAxis(attribute, out);
+            for (int row = 0; row < players.size(); row++) {
+                assertEquals(index.getAxisValue(row, attribute), out[row], 1e-9, attribute + " row " + row);
+            }
+        }
+    }
+
+    @Test
+    void columnsAreOnlySortedWhenAsked() throws Exception {
+        PercentileIndex index = new PercentileIndex(TestTables.randomTable(1000, 32));
+        for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+            assertFalse(index.isBuilt(column));
+        }
+        index.fillAxis("APM", new double[1000]);
+        assertFalse(index.isBuilt(PlayerTable.APM));
+
+        index.getPercentile(PlayerTable.PPS, 1);
+        index.buildAsync(PlayerTable.TR).get();
+        assertTrue(index.isBuilt(PlayerTable.PPS));
+        assertTrue(index.isBuilt(PlayerTable.TR));
+        assertFalse(index.isBuilt(PlayerTable.VS));
+    }
+
+    @Test
+    void summaryIsTheSameWithOrWithoutSortedColumns() {
+        PlayerTable players = TestTables.randomTable(4000, 33);
+        int[] rows = IntStream.range(0, players.size()).filter(row -> row % 7 == 2).toArray();
+        SelectionSummary unsorted = SelectionSummary.summarize(new PercentileIndex(players), rows);
+
+        PercentileIndex index = new PercentileIndex(players);
+        for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+            index.getPercentile(column, 0);
+        }
+        SelectionSummary sorted = SelectionSummary.summarize(index, rows);
+
+        for (int column = 0; column < PlayerTable.STAT_COUNT; column++) {
+            assertEquals(sorted.getMean(column), unsorted.getMean(column), 1e-9);
+            assertEquals(sorted.getMedian(column), unsorted.getMedian(column), 0);
+            assertEquals(sorted.getMin(column), unsorted.getMin(column), 0);
+            assertEquals(sorted.getMax(column), unsorted.getMax(column), 0);
+            assertEquals(sorted.getMedianPercentile(column), unsorted.getMedianPercentile(column), 1e-9);
+        }
+    }
+}
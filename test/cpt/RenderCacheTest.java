@@ -0,0 +1,111 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * RenderCacheTest
+ * Checks the LRU eviction under the memory cap, that reloading drops the views of older data, and that the byte
+ * count always matches the views actually in the cache. The views only hold pyramids here, scatter series need
+ * the JavaFX toolkit.
+ *
+ * @author R. Shi
+ */
+class RenderCacheTest {
+
+    private static final PlayerTable PLAYERS = TestTables.randomTable(2000, 51);
+    private static final PercentileIndex PERCENTILES = new PercentileIndex(PLAYERS);
+
+    // Every pyramid of the same table has the same number of points, so every view weighs the same
+    private static final long VIEW_BYTES = view().getPyramid().size() * 16L;
+
+    private static RenderCache.PreparedView view() {
+        RenderCache.PreparedView view = new RenderCache.PreparedView();
+        view.setPyramid(TilePyramid.build(PLAYERS, PERCENTILES, "TR", "APM", 1));
+        return view;
+    }
+
+    private static RenderCache.ViewKey key(String yParam, int dataVersion) {
+        return new RenderCache.ViewKey("TR", yParam, dataVersion);
+    }
+
+    @Test
+    void countsBytesOfEveryView() {
+        RenderCache cache = new RenderCache(10 * VIEW_BYTES);
+        cache.put(key("APM", 1), view());
+        cache.put(key("PPS", 1), view());
+        assertEquals(2 * VIEW_BYTES, cache.getUsedBytes());
+
+        // An empty view weighs nothing until something is prepared for it
+        cache.put(key("VS", 1), new RenderCache.PreparedView());
+        assertEquals(2 * VIEW_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void puttingAViewAgainRemeasuresIt() {
+        RenderCache cache = new RenderCache(10 * VIEW_BYTES);
+        RenderCache.PreparedView view = new RenderCache.PreparedView();
+        cache.put(key("APM", 1), view);
+        assertEquals(0, cache.getUsedBytes());
+
+        // The zoom chart fills in the pyramid later and puts the same view back
+        view.setPyramid(view().getPyramid());
+        cache.put(key("APM", 1), view);
+        assertEquals(VIEW_BYTES, cache.getUsedBytes());
+        assertSame(view, cache.get(key("APM", 1)));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedFirst() {
+        RenderCache cache = new RenderCache(2 * VIEW_BYTES);
+        cache.put(key("APM", 1), view());
+        cache.put(key("PPS", 1), view());
+
+        // Going back to APM makes PPS the oldest
+        assertNotNull(cache.get(key("APM", 1)));
+        cache.put(key("VS", 1), view());
+
+        assertNull(cache.get(key("PPS", 1)));
+        assertNotNull(cache.get(key("APM", 1)));
+        assertNotNull(cache.get(key("VS", 1)));
+        assertEquals(2 * VIEW_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void keepsAViewBiggerThanTheWholeCap() {
+        RenderCache cache = new RenderCache(VIEW_BYTES / 2);
+        cache.put(key("APM", 1), view());
+        cache.put(key("PPS", 1), view());
+
+        assertNull(cache.get(key("APM", 1)));
+        assertNotNull(cache.get(key("PPS", 1)));
+        assertEquals(VIEW_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void invalidatingDropsOnlyOlderData() {
+        RenderCache cache = new RenderCache(10 * VIEW_BYTES);
+        cache.put(key("APM", 1), view());
+        cache.put(key("PPS", 1), view());
+        cache.put(key("APM", 2), view());
+
+        cache.invalidateBefore(2);
+        assertNull(cache.get(key("APM", 1)));
+        assertNull(cache.get(key("PPS", 1)));
+        assertNotNull(cache.get(key("APM", 2)));
+        assertEquals(VIEW_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void viewsOfDifferentDataVersionsAreDifferentViews() {
+        RenderCache cache = new RenderCache(10 * VIEW_BYTES);
+        cache.put(key("APM", 1), view());
+        assertNull(cache.get(key("APM", 2)));
+        assertNull(cache.get(new RenderCache.ViewKey("APM", "TR", 1)));
+        assertNotNull(cache.get(key("APM", 1)));
+    }
+}
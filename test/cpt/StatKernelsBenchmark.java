@@ -0,0 +1,86 @@
+package cpt;
+
+import java.util.Random;
+
+/**
+ * StatKernelsBenchmark
+ * A small timing harness (not a JUnit test) for comparing the scalar and vector kernels on the same columns.
+ * Each kernel is warmed up first so the JIT has compiled it, then timed over several runs and the best run is
+ * printed. It's a rough number, not a JMH benchmark, but it's enough to see whether the vector kernels help on
+ * a given machine.
+ *
+ * Run it after compiling the tests (see the README), with the vector source folder compiled in:
+ * java --add-modules jdk.incubator.vector -cp out cpt.StatKernelsBenchmark [players]
+ *
+ * @author R. Shi
+ */
+final class StatKernelsBenchmark {
+
+    private static final int WARMUP_RUNS = 20;
+    private static final int TIMED_RUNS = 10;
+
+    private StatKernelsBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int length = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        Random random = new Random(1);
+        double[] xs = new double[length];
+        double[] ys = new double[length];
+        for (int i = 0; i < length; i++) {
+            xs[i] = random.nextDouble() * 25000;
+            ys[i] = random.nextDouble() * 4;
+        }
+
+        StatKernels scalar = new ScalarStatKernels();
+        StatKernels vector = StatKernels.Holder.loadVector();
+        System.out.println(length + " players, best of " + TIMED_RUNS + " runs (ms)");
+        System.out.println("kernel       scalar   vector");
+        for (int kernel = 0; kernel < 3; kernel++) {
+            double scalarMs = time(scalar, kernel, xs, ys);
+            String vectorMs = vector == null ? "  (not loaded)" : String.format("%8.2f", time(vector, kernel, xs, ys));
+            System.out.println(String.format("%-10s %8.2f %s", NAMES[kernel], scalarMs, vectorMs));
+        }
+    }
+
+    private static final String[] NAMES = {"minMaxSum", "project", "mortonBins"};
+
+    /**
+     * Runs one kernel until it's warm, then gives the fastest of the timed runs.
+     */
+    private static double time(StatKernels kernels, int kernel, double[] xs, double[] ys) {
+        int length = xs.length;
+        double[] stats = new double[3];
+        float[] us = new float[length];
+        float[] vs = new float[length];
+        int[] bins = new int[length];
+        kernels.project(xs, length, 0, 1.0 / 25000, us);
+        kernels.project(ys, length, 0, 1.0 / 4, vs);
+
+        long best = Long.MAX_VALUE;
+        double check = 0;
+        for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+            long start = System.nanoTime();
+            if (kernel == 0) {
+                kernels.minMaxSum(xs, length, stats);
+                check += stats[2];
+            } else if (kernel == 1) {
+                kernels.project(xs, length, 0, 1.0 / 25000, us);
+                check += us[run % length];
+            } else {
+                kernels.mortonBins(us, vs, length, 4096, bins);
+                check += bins[run % length];
+            }
+            long elapsed = System.nanoTime() - start;
+            if (run >= WARMUP_RUNS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+
+        // Uses the results so the JIT can't skip the work
+        if (check == 42) {
+            System.out.println();
+        }
+        return best / 1e6;
+    }
+}
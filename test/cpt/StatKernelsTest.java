@@ -0,0 +1,138 @@
+package cpt;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * StatKernelsTest
+ * Checks that the vector kernels give the same answers as the scalar ones, including for NaNs, empty input and
+ * lengths that don't fill the last vector. Skipped when the vector kernels aren't compiled (src-vector) or the
+ * jdk.incubator.vector module isn't loaded.
+ *
+ * @author R. Shi
+ */
+class StatKernelsTest {
+
+    // Covers empty, shorter than a vector, one off from a multiple of the lanes (up to 16 lanes), and long
+    private static final int[] LENGTHS = {0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 31, 33, 1000, 1003};
+
+    private static final StatKernels SCALAR = new ScalarStatKernels();
+    private static StatKernels vector;
+
+    @BeforeAll
+    static void loadVector() {
+        vector = StatKernels.Holder.loadVector();
+    }
+
+    private static double[] randomDoubles(Random random, int length, boolean withNaN) {
+        double[] values = new double[length + 5];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (random.nextDouble() - 0.3) * 30000;
+        }
+        if (withNaN && length > 0) {
+            values[random.nextInt(length)] = Double.NaN;
+        }
+
+        // Past the length, these should never be looked at
+        values[length] = 1e300;
+        values[length + 1] = Double.NaN;
+        return values;
+    }
+
+    @Test
+    void scalarMinMaxSum() {
+        double[] out = new double[3];
+        SCALAR.minMaxSum(new double[] {3, -1, 2, 99}, 3, out);
+        assertArrayEquals(new double[] {-1, 3, 4}, out);
+        SCALAR.minMaxSum(new double[0], 0, out);
+        assertArrayEquals(new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0}, out);
+    }
+
+    @Test
+    void scalarMortonBinsClampToTheGrid() {
+        int[] out = new int[4];
+        SCALAR.mortonBins(new float[] {-0.5f, 1.5f, 0.5f, 0.99f}, new float[] {0, 0, 0.5f, 0.99f}, 4, 4, out);
+        assertArrayEquals(new int[] {0, TilePyramid.interleave(3, 0), TilePyramid.interleave(2, 2),
+                TilePyramid.interleave(3, 3)}, out);
+    }
+
+    @Test
+    void minMaxSumMatches() {
+        assumeTrue(vector != null, "vector kernels not available");
+        Random random = new Random(8);
+        for (int length : LENGTHS) {
+            for (boolean withNaN : new boolean[] {false, true}) {
+                double[] values = randomDoubles(random, length, withNaN);
+                double[] expected = new double[3];
+                double[] actual = new double[3];
+                SCALAR.minMaxSum(values, length, expected);
+                vector.minMaxSum(values, length, actual);
+                String what = "length " + length + (withNaN ? " with NaN" : "");
+                assertEquals(expected[0], actual[0], what);
+                assertEquals(expected[1], actual[1], what);
+
+                // Sums are added up in a different order, so only the last few bits can differ
+                if (Double.isNaN(expected[2])) {
+                    assertTrue(Double.isNaN(actual[2]), what);
+                } else {
+                    assertEquals(expected[2], actual[2], 1e-9 * Math.max(1, length * 30000.0), what);
+                }
+            }
+        }
+    }
+
+    @Test
+    void projectMatches() {
+        assumeTrue(vector != null, "vector kernels not available");
+        Random random = new Random(9);
+        for (int length : LENGTHS) {
+            for (boolean withNaN : new boolean[] {false, true}) {
+                double[] values = randomDoubles(random, length, withNaN);
+                float[] expected = new float[length + 5];
+                float[] actual = new float[length + 5];
+                SCALAR.project(values, length, -500, 1 / 31000.0, expected);
+                vector.project(values, length, -500, 1 / 31000.0, actual);
+                assertArrayEquals(expected, actual, "length " + length);
+            }
+        }
+    }
+
+    @Test
+    void mortonBinsMatch() {
+        assumeTrue(vector != null, "vector kernels not available");
+        Random random = new Random(10);
+        for (int length : LENGTHS) {
+            float[] u = new float[length + 5];
+            float[] v = new float[length + 5];
+            for (int i = 0; i < u.length; i++) {
+
+                // Mostly inside the unit square, some just outside it
+                u[i] = random.nextFloat() * 1.2f - 0.1f;
+                v[i] = random.nextFloat() * 1.2f - 0.1f;
+            }
+            if (length > 2) {
+                u[0] = Float.NaN;
+                v[1] = Float.NaN;
+                u[2] = 1;
+            }
+            if (length > 4) {
+                u[3] = 1e20f;
+                v[4] = -1e20f;
+            }
+            for (int cells : new int[] {1, 256, 1 << TilePyramid.MAX_LEVEL, 65536}) {
+                int[] expected = new int[length + 5];
+                int[] actual = new int[length + 5];
+                SCALAR.mortonBins(u, v, length, cells, expected);
+                vector.mortonBins(u, v, length, cells, actual);
+                assertArrayEquals(expected, actual, "length " + length + ", " + cells + " cells");
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package cpt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * TestTables
+ * Made-up player tables for the tests, so they don't depend on the csv files.
+ *
+ * @author R. Shi
+ */
+final class TestTables {
+
+    private TestTables() {
+    }
+
+    /**
+     * randomPlayers
+     * Players with random ranks (including unranked ones) and stats in roughly the real ranges, rounded to the same
+     * number of decimals as the csv.
+     *
+     * @param count How many players.
+     * @param seed The random seed, so a failing test can be repeated.
+     * @return The players, in row order.
+     */
+    static List<Player> randomPlayers(int count, long seed) {
+        Random random = new Random(seed);
+        List<Player> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String rank = PlayerTable.RANKS[random.nextInt(PlayerTable.RANKS.length)];
+            players.add(new Player("player" + i,
+                    round(random.nextDouble() * 25000, 6),
+                    rank,
+                    round(1000 + random.nextDouble() * 3000, 6),
+                    round(60 + random.nextDouble() * 100, 6),
+                    round(random.nextDouble() * 300, 2),
+                    round(random.nextDouble() * 4, 2),
+                    round(random.nextDouble() * 600, 2)));
+        }
+        return players;
+    }
+
+    /**
+     * randomTable
+     *
+     * @param count How many players.
+     * @param seed The random seed.
+     * @return A HeapPlayerTable of randomPlayers(count, seed).
+     */
+    static PlayerTable randomTable(int count, long seed) {
+        return new HeapPlayerTable(randomPlayers(count, seed));
+    }
+
+    private static double round(double value, int decimals) {
+        double scale = Math.pow(10, decimals);
+        return Math.round(value * scale) / scale;
+    }
+}
@@ -0,0 +1,150 @@
+package cpt;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * TileCacheTest
+ * Checks the LRU eviction order, that the byte count always matches what's actually in the cache, and that hiding
+ * and showing ranks reuses the cached tiles instead of drawing them again.
+ *
+ * @author R. Shi
+ */
+class TileCacheTest {
+
+    // A 16x16 tile is 1024 bytes
+    private static final int SIDE = 16;
+    private static final long TILE_BYTES = SIDE * SIDE * 4;
+
+    private static TileCache.TileKey key(int tx) {
+        return new TileCache.TileKey("TR", "APM", 0, 42L, 4, tx, 0);
+    }
+
+    @Test
+    void countsBytesOfEveryTile() {
+        TileCache cache = new TileCache(10 * TILE_BYTES);
+        cache.put(key(0), new WritableImage(SIDE, SIDE));
+        cache.put(key(1), new WritableImage(SIDE, SIDE));
+        cache.put(key(2), new WritableImage(2 * SIDE, SIDE));
+        assertEquals(4 * TILE_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void replacingATileSwapsItsBytes() {
+        TileCache cache = new TileCache(10 * TILE_BYTES);
+        cache.put(key(0), new WritableImage(SIDE, SIDE));
+        WritableImage bigger = new WritableImage(2 * SIDE, 2 * SIDE);
+        cache.put(key(0), bigger);
+        assertEquals(4 * TILE_BYTES, cache.getUsedBytes());
+        assertSame(bigger, cache.get(key(0)));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedFirst() {
+        TileCache cache = new TileCache(3 * TILE_BYTES);
+        cache.put(key(0), new WritableImage(SIDE, SIDE));
+        cache.put(key(1), new WritableImage(SIDE, SIDE));
+        cache.put(key(2), new WritableImage(SIDE, SIDE));
+
+        // Drawing tile 0 again makes tile 1 the oldest
+        assertNotNull(cache.get(key(0)));
+        cache.put(key(3), new WritableImage(SIDE, SIDE));
+
+        assertNull(cache.get(key(1)));
+        assertNotNull(cache.get(key(0)));
+        assertNotNull(cache.get(key(2)));
+        assertNotNull(cache.get(key(3)));
+        assertEquals(3 * TILE_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void evictsAsManyTilesAsItTakesToFit() {
+        TileCache cache = new TileCache(3 * TILE_BYTES);
+        cache.put(key(0), new WritableImage(SIDE, SIDE));
+        cache.put(key(1), new WritableImage(SIDE, SIDE));
+        cache.put(key(2), new WritableImage(SIDE, SIDE));
+        cache.put(key(3), new WritableImage(2 * SIDE, SIDE));
+
+        assertNull(cache.get(key(0)));
+        assertNull(cache.get(key(1)));
+        assertNotNull(cache.get(key(2)));
+        assertEquals(3 * TILE_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void keepsATileBiggerThanTheWholeCap() {
+        TileCache cache = new TileCache(TILE_BYTES);
+        cache.put(key(0), new WritableImage(SIDE, SIDE));
+        cache.put(key(1), new WritableImage(4 * SIDE, SIDE));
+
+        assertNull(cache.get(key(0)));
+        assertNotNull(cache.get(key(1)));
+        assertEquals(4 * TILE_BYTES, cache.getUsedBytes());
+    }
+
+    @Test
+    void keysWithDifferentLayerIdsAreDifferentTiles() {
+        TileCache cache = new TileCache(10 * TILE_BYTES);
+        cache.put(new TileCache.TileKey("TR", "APM", 0, 1L, 0, 0, 0), new WritableImage(SIDE, SIDE));
+        assertNull(cache.get(new TileCache.TileKey("TR", "APM", 0, 2L, 0, 0, 0)));
+        assertNotNull(cache.get(new TileCache.TileKey("TR", "APM", 0, 1L, 0, 0, 0)));
+    }
+
+    /**
+     * Does what the zoom chart does for one level: gets every tile of the shown ranks from the cache, and draws
+     * and caches the ones that are missing.
+     *
+     * @return How many tiles had to be drawn.
+     */
+    private static int drawLevel(TileCache cache, TilePyramid pyramid, int filter, int level) {
+        int drawn = 0;
+        for (int rank = 0; rank < TilePyramid.LAYERS; rank++) {
+            if ((filter & (1 << rank)) == 0) {
+                continue;
+            }
+            for (int ty = 0; ty < 1 << level; ty++) {
+                for (int tx = 0; tx < 1 << level; tx++) {
+                    TileCache.TileKey key = pyramid.tileKey(rank, level, tx, ty);
+                    if (cache.get(key) == null) {
+                        cache.put(key, pyramid.rasterize(rank, level, tx, ty));
+                        drawn++;
+                    }
+                }
+            }
+        }
+        return drawn;
+    }
+
+    @Test
+    void togglingTheFilterDoesntChangeTheCache() {
+        PlayerTable players = TestTables.randomTable(5000, 71);
+        TilePyramid pyramid = TilePyramid.build(players, new PercentileIndex(players), "TR", "APM", 1);
+        TileCache cache = new TileCache(Long.MAX_VALUE);
+        int all = (1 << TilePyramid.LAYERS) - 1;
+        assertEquals(TilePyramid.LAYERS * 4, drawLevel(cache, pyramid, all, 1));
+        long bytes = cache.getUsedBytes();
+        Image[] tiles = new Image[TilePyramid.LAYERS * 4];
+        for (int rank = 0; rank < TilePyramid.LAYERS; rank++) {
+            for (int tile = 0; tile < 4; tile++) {
+                tiles[rank * 4 + tile] = cache.get(pyramid.tileKey(rank, 1, tile % 2, tile / 2));
+            }
+        }
+
+        // Hide C and S rank, then show them again
+        int hidden = all & ~(1 << 1) & ~(1 << 4);
+        assertEquals(0, drawLevel(cache, pyramid, hidden, 1));
+        assertEquals(0, drawLevel(cache, pyramid, all, 1));
+        assertEquals(bytes, cache.getUsedBytes());
+        for (int rank = 0; rank < TilePyramid.LAYERS; rank++) {
+            for (int tile = 0; tile < 4; tile++) {
+                assertSame(tiles[rank * 4 + tile], cache.get(pyramid.tileKey(rank, 1, tile % 2, tile / 2)));
+            }
+        }
+    }
+}
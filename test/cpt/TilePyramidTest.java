@@ -0,0 +1,188 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TilePyramidTest
+ * Checks that the points come out in rank then Morton order, that the binary searches find exactly the points
+ * of a tile, and that each rank's tiles are keyed by that rank's points alone.
+ *
+ * @author R. Shi
+ */
+class TilePyramidTest {
+
+    private static final int PLAYERS = 5000;
+
+    private static TilePyramid build(PlayerTable players) {
+        return TilePyramid.build(players, new PercentileIndex(players), "TR", "APM", 1);
+    }
+
+    @Test
+    void interleavePutsXInEvenBitsAndYInOddBits() {
+        assertEquals(0, TilePyramid.interleave(0, 0));
+        assertEquals(1, TilePyramid.interleave(1, 0));
+        assertEquals(2, TilePyramid.interleave(0, 1));
+        assertEquals(15, TilePyramid.interleave(3, 3));
+        assertEquals(0x55555555, TilePyramid.interleave(0xFFFF, 0));
+        assertEquals(0xAAAAAAAA, TilePyramid.interleave(0, 0xFFFF));
+    }
+
+    @Test
+    void pointsAreSortedByRankThenMortonCode() {
+        PlayerTable players = TestTables.randomTable(PLAYERS, 1);
+        TilePyramid pyramid = build(players);
+
+        int ranked = 0;
+        for (int row = 0; row < players.size(); row++) {
+            if (players.getRankBucket(row) >= 0) {
+                ranked++;
+            }
+        }
+        assertEquals(ranked, pyramid.size(), "unranked players shouldn't be in the pyramid");
+
+        int cells = 1 << TilePyramid.MAX_LEVEL;
+        for (int i = 0; i < pyramid.size(); i++) {
+            int code = pyramid.getCode(i);
+            if (i > 0) {
+                assertTrue(pyramid.getCode(i - 1) <= code, "codes out of order at " + i);
+            }
+            assertEquals(players.getRankBucket(pyramid.getRow(i)), code >>> TilePyramid.RANK_SHIFT);
+            int cx = Math.max(0, Math.min((int) (pyramid.getU(i) * cells), cells - 1));
+            int cy = Math.max(0, Math.min((int) (pyramid.getV(i) * cells), cells - 1));
+            assertEquals(TilePyramid.interleave(cx, cy), code & TilePyramid.MORTON_MASK);
+        }
+    }
+
+    @Test
+    void tileRangesHoldExactlyTheTilesPoints() {
+        PlayerTable players = TestTables.randomTable(PLAYERS, 2);
+        TilePyramid pyramid = build(players);
+        Random random = new Random(3);
+
+        for (int trial = 0; trial < 200; trial++) {
+            int rank = random.nextInt(TilePyramid.LAYERS);
+            int level = random.nextInt(TilePyramid.MAX_LEVEL + 1);
+            int tx = random.nextInt(1 << level);
+            int ty = random.nextInt(1 << level);
+
+            // Same range as the one drawLayer rasterizes
+            int shift = 2 * (TilePyramid.MAX_LEVEL - level);
+            long layer = (long) rank << TilePyramid.RANK_SHIFT;
+            int from = pyramid.lowerBound(layer + ((long) TilePyramid.interleave(tx, ty) << shift));
+            int to = pyramid.lowerBound(layer + ((long) (TilePyramid.interleave(tx, ty) + 1) << shift));
+
+            // Brute force: every point of the rank whose cell at this level is the tile
+            int expected = 0;
+            int cells = 1 << TilePyramid.MAX_LEVEL;
+            for (int i = 0; i < pyramid.size(); i++) {
+                int code = pyramid.getCode(i);
+                int cx = Math.max(0, Math.min((int) (pyramid.getU(i) * cells), cells - 1));
+                int cy = Math.max(0, Math.min((int) (pyramid.getV(i) * cells), cells - 1));
+                boolean inTile = code >>> TilePyramid.RANK_SHIFT == rank
+                        && cx >> (TilePyramid.MAX_LEVEL - level) == tx
+                        && cy >> (TilePyramid.MAX_LEVEL - level) == ty;
+                if (inTile) {
+                    expected++;
+                    assertTrue(i >= from && i < to, "point " + i + " is in the tile but not its range");
+                }
+            }
+            assertEquals(expected, to - from);
+        }
+    }
+
+    @Test
+    void levelZeroRangeIsTheWholeRank() {
+        PlayerTable players = TestTables.randomTable(PLAYERS, 4);
+        TilePyramid pyramid = build(players);
+
+        int total = 0;
+        for (int rank = 0; rank < TilePyramid.LAYERS; rank++) {
+            int from = pyramid.lowerBound((long) rank << TilePyramid.RANK_SHIFT);
+            int to = pyramid.lowerBound((long) (rank + 1) << TilePyramid.RANK_SHIFT);
+            for (int i = from; i < to; i++) {
+                assertEquals(rank, players.getRankBucket(pyramid.getRow(i)));
+            }
+            total += to - from;
+        }
+        assertEquals(pyramid.size(), total);
+        assertEquals(0, pyramid.lowerBound(Long.MIN_VALUE));
+        assertEquals(pyramid.size(), pyramid.lowerBound(Long.MAX_VALUE));
+    }
+
+    @Test
+    void missingValuesAreLeftOutInsteadOfBreakingTheBounds() {
+        List<Player> players = TestTables.randomPlayers(PLAYERS, 6);
+        Player p = players.get(10);
+        players.set(10, new Player(p.getUsername(), Double.NaN, "a", p.getGlicko(), p.getRd(), p.getApm(), p.getPps(),
+                p.getVs()));
+        PlayerTable table = new HeapPlayerTable(players);
+
+        for (String xParam : new String[] {"TR", "TR %ile"}) {
+            TilePyramid pyramid = TilePyramid.build(table, new PercentileIndex(table), xParam, "APM", 1);
+            assertTrue(Double.isFinite(pyramid.getXMin()) && Double.isFinite(pyramid.getXMax()));
+            assertTrue(Double.isFinite(pyramid.getYMin()) && Double.isFinite(pyramid.getYMax()));
+
+            int ranked = 0;
+            for (int row = 0; row < PLAYERS; row++) {
+                if (table.getRankBucket(row) >= 0) {
+                    ranked++;
+                }
+            }
+            assertEquals(ranked - 1, pyramid.size());
+            for (int i = 0; i < pyramid.size(); i++) {
+                assertTrue(pyramid.getRow(i) != 10);
+                assertTrue(pyramid.getU(i) >= 0 && pyramid.getU(i) <= 1, "u " + pyramid.getU(i));
+                assertTrue(pyramid.getV(i) >= 0 && pyramid.getV(i) <= 1, "v " + pyramid.getV(i));
+            }
+        }
+    }
+
+    @Test
+    void changingOneRankKeepsTheOtherLayersKeys() {
+        // Two D rank players on the far corners pin the bounds, so only the changed rank's points can move
+        List<Player> before = TestTables.randomPlayers(PLAYERS, 7);
+        before.add(new Player("low", -1, "d", 1000, 60, -1, 0, 0));
+        before.add(new Player("high", 30000, "d", 4000, 160, 400, 4, 600));
+
+        // A reload where only the X+ rank players' APM changed
+        int changed = 8;
+        List<Player> after = new ArrayList<>();
+        for (Player p : before) {
+            double apm = ChartManager.getRankIndex(p.getRank()) == changed ? p.getApm() / 2 + 50 : p.getApm();
+            after.add(new Player(p.getUsername(), p.getTr(), p.getRank(), p.getGlicko(), p.getRd(), apm, p.getPps(),
+                    p.getVs()));
+        }
+        TilePyramid old = build(new HeapPlayerTable(before));
+        TilePyramid reloaded = build(new HeapPlayerTable(after));
+        assertEquals(old.getYMin(), reloaded.getYMin());
+        assertEquals(old.getYMax(), reloaded.getYMax());
+
+        for (int rank = 0; rank < TilePyramid.LAYERS; rank++) {
+            for (int level = 0; level <= 2; level++) {
+                for (int tile = 0; tile < 1 << (2 * level); tile++) {
+                    int tx = tile % (1 << level);
+                    int ty = tile / (1 << level);
+                    if (rank == changed) {
+                        assertNotEquals(old.tileKey(rank, level, tx, ty), reloaded.tileKey(rank, level, tx, ty));
+                    } else {
+                        assertEquals(old.tileKey(rank, level, tx, ty), reloaded.tileKey(rank, level, tx, ty),
+                                "rank " + rank + " level " + level + " tile " + tx + ", " + ty);
+                    }
+                }
+            }
+            if (rank == changed) {
+                assertNotEquals(old.getLayerId(rank), reloaded.getLayerId(rank));
+            } else {
+                assertEquals(old.getLayerId(rank), reloaded.getLayerId(rank), "rank " + rank);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cpt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TransitionLayerTest
+ * Checks that a prepared transition starts exactly where the points are on the old axes and ends exactly where
+ * they are on the new ones, for every player and in whatever order prepare sorted them into.
+ *
+ * @author R. Shi
+ */
+class TransitionLayerTest {
+
+    /**
+     * Where every player in a pyramid is, keyed by row.
+     */
+    private static Map<Integer, float[]> positions(TilePyramid pyramid) {
+        Map<Integer, float[]> positions = new HashMap<>();
+        for (int i = 0; i < pyramid.size(); i++) {
+            positions.put(pyramid.getRow(i), new float[] {pyramid.getU(i), pyramid.getV(i)});
+        }
+        return positions;
+    }
+
+    /**
+     * Packs the four coordinates of a point into one key, so the points can be matched up without knowing
+     * which row each buffer index came from.
+     */
+    private static String key(float fromU, float fromV, float toU, float toV) {
+        return Float.floatToIntBits(fromU) + " " + Float.floatToIntBits(fromV) + " "
+                + Float.floatToIntBits(toU) + " " + Float.floatToIntBits(toV);
+    }
+
+    @Test
+    void startsOnTheOldAxesAndEndsOnTheNewOnes() {
+        PlayerTable players = TestTables.randomTable(5000, 61);
+        PercentileIndex percentiles = new PercentileIndex(players);
+        TilePyramid from = TilePyramid.build(players, percentiles, "TR", "APM", 1);
+        TilePyramid to = TilePyramid.build(players, percentiles, "Glicko", "VS", 1);
+        TransitionLayer.Buffers buffers = TransitionLayer.prepare(percentiles, from, to);
+        assertEquals(players.size(), buffers.size());
+
+        // Every ranked player should be somewhere in the buffers with exactly its two pyramid positions
+        Map<Integer, float[]> fromPositions = positions(from);
+        Map<Integer, float[]> toPositions = positions(to);
+        Map<String, Integer> expected = new HashMap<>();
+        for (Map.Entry<Integer, float[]> entry : fromPositions.entrySet()) {
+            float[] start = entry.getValue();
+            float[] end = toPositions.get(entry.getKey());
+            expected.merge(key(start[0], start[1], end[0], end[1]), 1, Integer::sum);
+        }
+
+        int ranked = 0;
+        for (int i = 0; i < buffers.size(); i++) {
+            if (buffers.getRank(i) < 0) {
+                continue;
+            }
+            ranked++;
+            String key = key(buffers.getU(i, 0), buffers.getV(i, 0), buffers.getU(i, 1), buffers.getV(i, 1));
+            Integer left = expected.get(key);
+            assertTrue(left != null && left > 0, "index " + i + " isn't a player's start and end position");
+            expected.put(key, left - 1);
+        }
+        assertEquals(fromPositions.size(), ranked);
+    }
+
+    @Test
+    void easingStartsAndEndsExactly() {
+        assertEquals(0f, TransitionLayer.ease(0f));
+        assertEquals(1f, TransitionLayer.ease(1f));
+        assertEquals(0.5f, TransitionLayer.ease(0.5f));
+
+        // It should never run backwards or past the end
+        float last = 0;
+        for (int step = 1; step <= 100; step++) {
+            float eased = TransitionLayer.ease(step / 100f);
+            assertTrue(eased >= last && eased <= 1);
+            last = eased;
+        }
+    }
+}